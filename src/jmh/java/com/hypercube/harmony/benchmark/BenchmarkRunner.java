@@ -0,0 +1,115 @@
+package com.hypercube.harmony.benchmark;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collection;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Run the benchmarks and compare them to a baseline
+ *
+ * System properties:
+ * jmh.include   regexp of the benchmarks to run
+ * jmh.result    full JMH report (JSON)
+ * jmh.baseline  baseline file (JSON: benchmark name to score and unit)
+ * jmh.threshold accepted slowdown in %
+ * jmh.record    true to replace the baseline by the current results
+ *
+ * The process exit with status 1 if a benchmark is slower than its baseline by more than the threshold
+ *
+ * @author hypercube software
+ *
+ */
+public class BenchmarkRunner {
+	private static final Pattern baselineEntry = Pattern
+			.compile("\"([^\"]+)\"\\s*:\\s*\\{\\s*\"score\"\\s*:\\s*([-+0-9.eE]+)\\s*,\\s*\"unit\"\\s*:\\s*\"([^\"]*)\"");
+
+	public static void main(String[] args) throws Exception {
+		String include = System.getProperty("jmh.include", ".*");
+		Path baselinePath = Paths.get(System.getProperty("jmh.baseline", "src/jmh/baseline.json"));
+		String resultPath = System.getProperty("jmh.result", "target/jmh-result.json");
+		double threshold = Double.parseDouble(System.getProperty("jmh.threshold", "10"));
+		boolean record = Boolean.parseBoolean(System.getProperty("jmh.record", "false"));
+
+		Options options = new OptionsBuilder().include(include).resultFormat(ResultFormatType.JSON).result(resultPath)
+				.build();
+		Collection<RunResult> results = new Runner(options).run();
+
+		Map<String, Double> scores = new TreeMap<String, Double>();
+		Map<String, String> units = new TreeMap<String, String>();
+		for (RunResult result : results) {
+			String name = result.getParams().getBenchmark();
+			scores.put(name, result.getPrimaryResult().getScore());
+			units.put(name, result.getPrimaryResult().getScoreUnit());
+		}
+
+		if (record || !Files.exists(baselinePath)) {
+			Map<String, Double> baseline = Files.exists(baselinePath) ? readBaseline(baselinePath, units)
+					: new TreeMap<String, Double>();
+			baseline.putAll(scores);
+			writeBaseline(baselinePath, baseline, units);
+			System.out.println("Baseline recorded in " + baselinePath);
+			return;
+		}
+
+		Map<String, Double> baseline = readBaseline(baselinePath, new TreeMap<String, String>());
+		int regressions = 0;
+		for (Map.Entry<String, Double> score : scores.entrySet()) {
+			Double reference = baseline.get(score.getKey());
+			if (reference == null) {
+				System.out.println(String.format(Locale.ROOT, "%-70s %12.3f %s (no baseline)", score.getKey(),
+						score.getValue(), units.get(score.getKey())));
+				continue;
+			}
+			// all benchmarks measure a time per operation, lower is better
+			double change = (score.getValue() - reference) * 100 / reference;
+			boolean regression = change > threshold;
+			if (regression)
+				regressions++;
+			System.out.println(String.format(Locale.ROOT, "%-70s %12.3f %s baseline %12.3f %+7.1f%%%s", score.getKey(),
+					score.getValue(), units.get(score.getKey()), reference, change, regression ? " REGRESSION" : ""));
+		}
+		if (regressions > 0) {
+			System.out.println(regressions + " benchmark(s) slower than the baseline by more than " + threshold + "%");
+			System.exit(1);
+		}
+	}
+
+	private static Map<String, Double> readBaseline(Path path, Map<String, String> units) throws IOException {
+		Map<String, Double> baseline = new TreeMap<String, Double>();
+		String json = new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+		Matcher matcher = baselineEntry.matcher(json);
+		while (matcher.find()) {
+			baseline.put(matcher.group(1), Double.parseDouble(matcher.group(2)));
+			units.putIfAbsent(matcher.group(1), matcher.group(3));
+		}
+		return baseline;
+	}
+
+	private static void writeBaseline(Path path, Map<String, Double> baseline, Map<String, String> units)
+			throws IOException {
+		StringBuilder json = new StringBuilder("{\n");
+		int n = 0;
+		for (Map.Entry<String, Double> score : baseline.entrySet()) {
+			json.append(String.format(Locale.ROOT, "  \"%s\": { \"score\": %s, \"unit\": \"%s\" }%s\n", score.getKey(),
+					Double.toString(score.getValue()), units.get(score.getKey()), ++n < baseline.size() ? "," : ""));
+		}
+		json.append("}\n");
+		if (path.getParent() != null)
+			Files.createDirectories(path.getParent());
+		Files.write(path, json.toString().getBytes(StandardCharsets.UTF_8));
+	}
+}
@@ -0,0 +1,54 @@
+package com.hypercube.harmony.benchmark;
+
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.hypercube.harmony.ChordGenerator;
+import com.hypercube.harmony.Scale;
+import com.hypercube.harmony.ScaleFormula;
+
+/**
+ * Full generation of a scale, the graphml goes to a null sink
+ *
+ * @author hypercube software
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GenerationBenchmark {
+	private Scale cMajor;
+
+	@Setup
+	public void setup() throws Exception {
+		cMajor = new Scale("C Major", 0, new ScaleFormula("T-T-S-T-T-T-S"));
+	}
+
+	@Benchmark
+	public int generateCMajor() {
+		ChordGenerator cg = new ChordGenerator(cMajor);
+		cg.generateChords(OutputStream.nullOutputStream());
+		return cg.getChords().size();
+	}
+
+	@Benchmark
+	public int generateChromatic() {
+		ChordGenerator cg = new ChordGenerator(null);
+		cg.generateChords(OutputStream.nullOutputStream());
+		return cg.getChords().size();
+	}
+}
@@ -0,0 +1,111 @@
+package com.hypercube.harmony.benchmark;
+
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.hypercube.harmony.Chord;
+import com.hypercube.harmony.ChordFormula;
+import com.hypercube.harmony.ChordGenerator;
+import com.hypercube.harmony.Intervals;
+import com.hypercube.harmony.InvertedChord;
+import com.hypercube.harmony.Scale;
+import com.hypercube.harmony.ScaleFormula;
+
+/**
+ * Hot paths of the library, each operation is applied on all the chords of C Major
+ *
+ * @author hypercube software
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HarmonyBenchmark {
+	private ScaleFormula majorFormula;
+	private Chord[] chords;
+	private ChordFormula[] formulas;
+	private int[][] offsets;
+	private Integer[][] boxedOffsets;
+
+	@Setup
+	public void setup() throws Exception {
+		majorFormula = new ScaleFormula("T-T-S-T-T-T-S");
+		ChordGenerator cg = new ChordGenerator(new Scale("C Major", 0, majorFormula));
+		cg.generateChords(OutputStream.nullOutputStream());
+		List<Chord> list = new ArrayList<Chord>(cg.getChords());
+		chords = list.toArray(new Chord[0]);
+		formulas = new ChordFormula[chords.length];
+		offsets = new int[chords.length][];
+		boxedOffsets = new Integer[chords.length][];
+		for (int i = 0; i < chords.length; i++) {
+			formulas[i] = chords[i].getFormula();
+			offsets[i] = new int[formulas[i].getSize()];
+			boxedOffsets[i] = new Integer[formulas[i].getSize()];
+			for (int n = 0; n < offsets[i].length; n++) {
+				offsets[i][n] = formulas[i].getInterval(n);
+				boxedOffsets[i][n] = formulas[i].getInterval(n);
+			}
+		}
+	}
+
+	@Benchmark
+	public void getChordType(Blackhole bh) {
+		for (ChordFormula formula : formulas) {
+			bh.consume(Intervals.getChordType(formula));
+		}
+	}
+
+	@Benchmark
+	public void isValid(Blackhole bh) {
+		for (int i = 0; i < offsets.length; i++) {
+			bh.consume(ChordFormula.isValid(offsets[i], offsets[i].length));
+		}
+	}
+
+	@Benchmark
+	public void isValidBoxed(Blackhole bh) {
+		for (Integer[] o : boxedOffsets) {
+			bh.consume(ChordFormula.isValid(o));
+		}
+	}
+
+	@Benchmark
+	public void invertedFormula(Blackhole bh) throws Exception {
+		for (ChordFormula formula : formulas) {
+			for (int inversion = 1; inversion < formula.getSize(); inversion++) {
+				bh.consume(InvertedChord.invertedFormula(formula, inversion));
+			}
+		}
+	}
+
+	@Benchmark
+	public void distance(Blackhole bh) {
+		for (Chord c1 : chords) {
+			for (Chord c2 : chords) {
+				bh.consume(c1.distance(c2));
+			}
+		}
+	}
+
+	@Benchmark
+	public Scale scaleConstruction() {
+		return new Scale("C Major", 0, majorFormula);
+	}
+}
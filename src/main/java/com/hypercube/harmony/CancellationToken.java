@@ -0,0 +1,22 @@
+package com.hypercube.harmony;
+
+/**
+ * Stop a running generation from another thread, see {@link ChordGenerator#setCancellationToken(CancellationToken)}
+ *
+ * The generation stops within a few microseconds and keeps the chords found so far.
+ * A token stays cancelled, use a new one for the next generation.
+ *
+ * @author hypercube software
+ *
+ */
+public class CancellationToken {
+	private volatile boolean cancelled;
+
+	public void cancel() {
+		cancelled = true;
+	}
+
+	public boolean isCancelled() {
+		return cancelled;
+	}
+}
@@ -4,8 +4,14 @@ package com.hypercube.harmony;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 public class Chord {
+	/**
+	 * Deviation in Hz of each pitch class from the equal temperament, see {@link #fakeFrequency(int)}
+	 */
+	private static final double[] FREQUENCY_OFFSETS = new double[] { 0, +4.64, -0.67, -2.84, +2.60, +0.40, +2.07,
+			-0.44, -3.30, +3.94, -4.77, +3.33 };
 	private ChordFormula formula;
 	private Integer baseNote;
 	private String type;
@@ -13,24 +19,41 @@ public class Chord {
 	private List<Integer> transposedOffsets;
 	private Scale scale;
 	private String chordName;
+	private int[] noteArray;
+	/**
+	 * Shared instance of {@link ChordRegistry}
+	 */
+	private boolean interned;
+	/**
+	 * Inverted chords by inversion, only for the chords of {@link ChordRegistry}
+	 */
+	AtomicReferenceArray<InvertedChord> inversions;
+
+	/**
+	 * Intervals counted by {@link #computeDissonantScore()}, bit n = n semitones
+	 */
+	private static final int DISSONANT_INTERVALS = 1 << Intervals.getInterval("m2") | 1 << Intervals.getInterval("M2")
+			| 1 << Intervals.getInterval("m7") | 1 << Intervals.getInterval("M7") | 1 << Intervals.getInterval("Tritone");
 
 	public double computeDissonantScore() {
 		int score = 0;
-		for (Integer interval : formula.getIntervals())
+		for (int i = 0; i < formula.getSize(); i++)
 		{
-			if (interval == Intervals.getInterval("m2") ||
-				interval == Intervals.getInterval("M2") ||
-				interval == Intervals.getInterval("m7") ||
-				interval == Intervals.getInterval("M7") ||
-				interval == Intervals.getInterval("Tritone")
-				)
+			int interval = formula.getInterval(i);
+			if (interval < 32 && (DISSONANT_INTERVALS & 1 << interval) != 0)
 			{
 				score++;
 			}
 		}
 	    // the final score is a % of how many dissonant intervals are found between all intervals
 		// In practice it is from 0 to 50%
-		return score/(double)formula.getIntervals().size();
+		return score/(double)formula.getSize();
+	}
+	/**
+	 * @return sensory dissonance of the chord as it is voiced, see {@link RoughnessModel}
+	 */
+	public double computeRoughness() {
+		return RoughnessModel.getDefault().score(this);
 	}
 	public ChordFormula getFormula() {
 		return formula;
@@ -39,11 +62,27 @@ public class Chord {
 		return scale;
 	}
 
+	/**
+	 * Name the notes with the diatonic names of the scale
+	 * The chords built by the generator are shared (see {@link ChordRegistry}) and can not be modified:
+	 * use {@link #withScale(Scale)} to get a copy named after the scale
+	 */
 	public void setScale(Scale scale) {
+		if (interned)
+			throw new IllegalStateException("Shared chord, it can not be modified: " + getChordName());
 		this.scale = scale;
 		this.chordName = null;
 	}
 
+	/**
+	 * @return a copy of the chord named with the notes of the scale, the chord itself is not modified
+	 */
+	public Chord withScale(Scale scale) {
+		Chord chord = new Chord(formula, baseNote);
+		chord.setScale(scale);
+		return chord;
+	}
+
 	@Override
 	public String toString() {
 		String r = getChordName()+" {"+getChordNotes()+"} offsets {";
@@ -66,8 +105,8 @@ public class Chord {
 
 		offsets = new ArrayList<Integer>();
 
-		for (int i = 0; i < formula.getIntervals().size(); i++) {
-			int currentNoteOffset = baseNote + formula.getIntervals().get(i);
+		for (int i = 0; i < formula.getSize(); i++) {
+			int currentNoteOffset = baseNote + formula.getInterval(i);
 			offsets.add(currentNoteOffset);
 		}
 				
@@ -98,13 +137,20 @@ public class Chord {
 		return result/offsets.size();
 	}
 	public int distance(Chord chord)
+	{
+		return distance(getNoteArray(), chord.getNoteArray());
+	}
+	/**
+	 * Same as {@link #distance(Chord)} on the notes of two chords
+	 */
+	static int distance(int[] notes, int[] otherNotes)
 	{
 		int nbOverlap = 0;
 		int minGap = Integer.MAX_VALUE;
 		int maxGap = 0;
-		for (Integer o : chord.getOffsets())
+		for (int o : otherNotes)
 		{
-			for (Integer o2 : getOffsets())
+			for (int o2 : notes)
 			{
 				if (o==o2)
 					nbOverlap++;
@@ -112,9 +158,34 @@ public class Chord {
 				maxGap = Math.max(maxGap, Math.abs(o2-o));
 			}			
 		}
-		int OverlapInverse = offsets.size()-nbOverlap;
+		int OverlapInverse = notes.length-nbOverlap;
 		return (OverlapInverse<<16) + (minGap<<8) + (maxGap);
 	}
+	/**
+	 * Compute the lazy fields before the chord is shared by {@link ChordRegistry}
+	 */
+	void intern(int nbInversions) {
+		getChordName();
+		getNoteArray();
+		if (nbInversions > 0)
+			inversions = new AtomicReferenceArray<InvertedChord>(nbInversions);
+		interned = true;
+	}
+	/**
+	 * @return the notes of {@link #getOffsets()} as primitives, this is a cache which must not be modified
+	 */
+	int[] getNoteArray() {
+		if (noteArray==null)
+		{
+			List<Integer> offsets = getOffsets();
+			int[] notes = new int[offsets.size()];
+			for (int i = 0; i < notes.length; i++) {
+				notes[i] = offsets.get(i);
+			}
+			noteArray = notes;
+		}
+		return noteArray;
+	}
 	public String getChordName() {
 		if (chordName==null)
 		{
@@ -129,9 +200,9 @@ public class Chord {
 	 */
 	private String computeChordName() {
 		int note = getBaseNote()%12;
-		if (scale!=null)
+		if (scale!=null && scale.contains(note))
 		{
-			return scale.getNoteNames().get(scale.getDegree(note)) + getType();
+			return scale.getNoteName(note) + getType();
 		}
 		else
 		{
@@ -154,8 +225,8 @@ public class Chord {
 				r += ",";
 			
 			int note = n%12;
-			if (scale!=null)
-				r += scale.getNoteNames().get(note);
+			if (scale!=null && scale.contains(note))
+				r += scale.getNoteName(note);
 			else
 				r += Intervals.getSharpNote(note);
 			if (n / 12 > 0) {
@@ -178,38 +249,19 @@ public class Chord {
 		if (x < 0) {
 			return "-" + convertDecimalToFraction(-x);
 		}
-		double tolerance = 1.0E-6;
-		double h1 = 1;
-		double h2 = 0;
-		double k1 = 0;
-		double k2 = 1;
-		double b = x;
-		do {
-			double a = Math.floor(b);
-			double aux = h1;
-			h1 = a * h1 + h2;
-			h2 = aux;
-			aux = k1;
-			k1 = a * k1 + k2;
-			k2 = aux;
-			b = 1 / (b - a);
-		} while (Math.abs(x - h1 / k1) > x * tolerance);
-
-		return (int)h1 + "/" + (int)k1;
+		long fraction = FrequencyRatios.toFraction(x, FrequencyRatios.DEFAULT_TOLERANCE);
+		return (int) (fraction >>> 32) + "/" + (int) fraction;
 	}
 
+	/**
+	 * @return real frequency, equal temperament, see {@link Tuning#EQUAL_TEMPERAMENT}
+	 */
 	public static double noteFrequency(int note) {
-		double step = Math.pow(2, 1 / 12.0);
-		// real frequency, equal temperament
-		double f = 440/2 * Math.pow(step, note + 3); // +3 is the distance beetween A 440 and C
-		
-		return f;
+		return Tuning.EQUAL_TEMPERAMENT.getFrequency(note);
 	}
 	public static double fakeFrequency(int note) {
-		double[] freqOffsets = new double[] { 0, +4.64, -0.67, -2.84, +2.60, +0.40, +2.07, -0.44, -3.30, +3.94, -4.77,
-				+3.33 };		
 		double f = noteFrequency(note);
-		f -= freqOffsets[note%12];
+		f -= FREQUENCY_OFFSETS[note%12];
 		return f;
 	}
 
@@ -217,6 +269,7 @@ public class Chord {
 		String[] notesNames = new String[] { "C", "C#", "D", "D#", "E", "F", "F#", "G", "G#", "A", "A#", "B" };
 		double tonicFrequency = -1;
 		double[] frequencies = new double[getOffsets().size()];
+		DecimalFormat newFormat = new DecimalFormat("#.##");
 		for (int o = 0; o < getOffsets().size(); o++) {
 			int i = getOffsets().get(o);
 			int n = i % 12;
@@ -229,7 +282,6 @@ public class Chord {
 			int n = i % 12;
 			double f = frequencies[o];
 			double r = f / tonicFrequency;
-			DecimalFormat newFormat = new DecimalFormat("#.##");
 			double rRounded =  Double.valueOf(newFormat.format(r).replace(',', '.'));
 			/*logger.fine(notesNames[n] + ":" + String.format("%.2f", f) + "Hz ratio from tonic "
 					+ notesNames[tonic] + " " + String.format("%.2f", tonicFrequency) + " Hz : " + String.format("%.2f", r) + " "
@@ -0,0 +1,284 @@
+package com.hypercube.harmony;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.hypercube.harmony.ChordGenerator.RecordedExploration;
+
+/**
+ * Generate the chords of many scales in one go
+ *
+ * The chords found from a root note only depend on the notes of the scale relative to this root note.
+ * So all the transpositions and all the modes of a scale share the same subtrees:
+ * each subtree is explored once from C, then renamed for the other root notes.
+ *
+ * C Major and D Dorian have the same notes, the subtree of D is the same in both scales
+ * E Major starting from E gives the same subtree than C Major starting from C
+ *
+ * @author hypercube software
+ *
+ */
+public class ChordBatchGenerator {
+	static Logger logger = Logger.getLogger(ChordBatchGenerator.class.getName());
+
+	private List<Scale> scales = new ArrayList<Scale>();
+	private Set<String> scaleNames = new HashSet<String>();
+	/**
+	 * Subtree explored from C, by notes of the scale relative to the root note
+	 */
+	private Map<Integer, RecordedExploration> subtrees = new HashMap<Integer, RecordedExploration>();
+	private int nbExplorations;
+	private BiConsumer<Scale, Collection<Chord>> listener;
+	private boolean incremental;
+	private int nbUpToDate;
+	private GraphSink.Format format = GraphSink.Format.GRAPHML;
+	private boolean compressed;
+
+	public static void main(String[] args) throws Exception {
+		ChordGenerator.initLogs();
+		ChordBatchGenerator batch = new ChordBatchGenerator();
+		List<String> formulas = new ArrayList<String>();
+		for (String arg : args)
+		{
+			if (arg.equals("--incremental"))
+				batch.setIncremental(true);
+			else if (arg.equals("--gzip"))
+				batch.setCompressed(true);
+			else if (arg.startsWith("--format="))
+				batch.setFormat(GraphSink.Format.valueOf(arg.substring("--format=".length()).toUpperCase()));
+			else
+				formulas.add(arg);
+		}
+		if (formulas.isEmpty() || formulas.get(0).equals("--all"))
+			batch.addAllScales();
+		else
+		{
+			for (String formula : formulas)
+			{
+				batch.addFormula(formula);
+			}
+		}
+		batch.generateChords();
+	}
+
+	public List<Scale> getScales() {
+		return scales;
+	}
+
+	/**
+	 * Number of subtrees really explored during the generation
+	 */
+	public int getNbExplorations() {
+		return nbExplorations;
+	}
+
+	public boolean isIncremental() {
+		return incremental;
+	}
+
+	/**
+	 * Skip the scales whose file is up to date, see {@link ChordGenerator#setIncremental(boolean)}
+	 */
+	public void setIncremental(boolean incremental) {
+		this.incremental = incremental;
+	}
+
+	public GraphSink.Format getFormat() {
+		return format;
+	}
+
+	/**
+	 * See {@link ChordGenerator#setFormat(GraphSink.Format)}
+	 */
+	public void setFormat(GraphSink.Format format) {
+		this.format = format;
+	}
+
+	public boolean isCompressed() {
+		return compressed;
+	}
+
+	/**
+	 * See {@link ChordGenerator#setCompressed(boolean)}
+	 */
+	public void setCompressed(boolean compressed) {
+		this.compressed = compressed;
+	}
+
+	/**
+	 * Number of scales skipped by the incremental mode during the generation
+	 */
+	public int getNbUpToDate() {
+		return nbUpToDate;
+	}
+
+	/**
+	 * Called after the generation of each scale, not for the scales skipped by the incremental mode
+	 */
+	public void setListener(BiConsumer<Scale, Collection<Chord>> listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Add a scale, ignored if a scale with the same name is already there
+	 */
+	public void addScale(Scale scale) {
+		if (scaleNames.add(scale.getName()))
+		{
+			scales.add(scale);
+		}
+	}
+
+	/**
+	 * Add all the modes of a scale formula like "T-T-S-T-T-T-S", on every root note
+	 * Scales are named after their root note and their formula: "D T-S-T-T-T-S-T"
+	 */
+	public void addFormula(String formula) throws Exception {
+		new ScaleFormula(formula); // syntax check
+		String[] steps = formula.split("-");
+		for (int mode = 0; mode < steps.length; mode++)
+		{
+			String modeFormula = "";
+			for (int i = 0; i < steps.length; i++)
+			{
+				if (i > 0)
+					modeFormula += "-";
+				modeFormula += steps[(i + mode) % steps.length];
+			}
+			for (int root = 0; root < 12; root++)
+			{
+				addScale(new Scale(Intervals.getSharpNote(root) + " " + modeFormula, root, new ScaleFormula(modeFormula)));
+			}
+		}
+	}
+
+	/**
+	 * Add every set of notes, on every root note: 2048 scales starting on C, 12 times
+	 * Scales are named after their root note and their bitmask starting on C: "D scale 2741"
+	 * see https://ianring.com/musictheory/scales/
+	 */
+	public void addAllScales() {
+		for (int relativeMask = 1; relativeMask < 4096; relativeMask += 2)
+		{
+			for (int root = 0; root < 12; root++)
+			{
+				addScale(createScale(Intervals.getSharpNote(root) + " scale " + relativeMask, root, relativeMask));
+			}
+		}
+	}
+
+	/**
+	 * @param relativeMask notes of the scale starting from the root note, bit 0 must be set
+	 */
+	static Scale createScale(String name, int rootNote, int relativeMask) {
+		List<Integer> offsets = new ArrayList<Integer>();
+		for (int i = 0; i < 12; i++)
+		{
+			if ((relativeMask & (1 << i)) != 0)
+				offsets.add(i);
+		}
+		offsets.add(12);
+		return new Scale(name, rootNote, new ScaleFormula(offsets));
+	}
+
+	/**
+	 * Smallest rotation of a set of notes, shared by all its transpositions
+	 */
+	static int canonicalMask(int mask) {
+		int result = mask;
+		for (int i = 1; i < 12; i++)
+		{
+			result = Math.min(result, ((mask >>> i) | (mask << (12 - i))) & 0xFFF);
+		}
+		return result;
+	}
+
+	/**
+	 * Scales are grouped by transposition, the subtrees of a group are released once it is generated
+	 */
+	public void generateChords() {
+		ChordManifest manifest = null;
+		if (incremental)
+		{
+			File folder = new File(ChordGenerator.OUTPUT_FOLDER);
+			folder.mkdirs();
+			try {
+				manifest = ChordManifest.get(folder);
+			} catch (IOException e) {
+				logger.log(Level.SEVERE,"Unexpected error",e);
+				return;
+			}
+		}
+		nbUpToDate = 0;
+		try {
+			generateChords(manifest);
+		} finally {
+			if (manifest != null)
+			{
+				try {
+					manifest.save();
+				} catch (IOException e) {
+					logger.log(Level.SEVERE,"Unexpected error",e);
+				}
+			}
+		}
+	}
+
+	private void generateChords(ChordManifest manifest) {
+		Map<Integer, List<Scale>> groups = new LinkedHashMap<Integer, List<Scale>>();
+		for (Scale scale : scales)
+		{
+			groups.computeIfAbsent(canonicalMask(scale.getBitmask()), k -> new ArrayList<Scale>()).add(scale);
+		}
+		for (List<Scale> group : groups.values())
+		{
+			for (Scale scale : group)
+			{
+				// checked before building the generator, so a run without change does not cost more than the hashes
+				if (manifest != null && manifest.isUpToDate(ChordGenerator.getFilename(scale, format, compressed), ChordManifest.computeHash(scale)))
+				{
+					nbUpToDate++;
+					continue;
+				}
+				ChordGenerator cg = new ChordGenerator(scale);
+				cg.setBatch(this);
+				cg.setFormat(format);
+				cg.setCompressed(compressed);
+				cg.setIncremental(manifest != null);
+				cg.setManifest(manifest);
+				cg.generateChords();
+				if (listener != null)
+					listener.accept(scale, cg.getChords());
+			}
+			subtrees.clear();
+		}
+		logger.info((scales.size() - nbUpToDate) + " scales generated with " + nbExplorations + " explorations, "
+				+ nbUpToDate + " up to date");
+	}
+
+	/**
+	 * @param relativeMask notes of the scale relative to the root note
+	 * @return the subtree of the root note C in a scale made of those notes
+	 */
+	RecordedExploration getSubtree(int relativeMask) {
+		RecordedExploration subtree = subtrees.get(relativeMask);
+		if (subtree == null)
+		{
+			subtree = new ChordGenerator(createScale("", 0, relativeMask)).exploreRoot(0);
+			subtrees.put(relativeMask, subtree);
+			nbExplorations++;
+		}
+		return subtree;
+	}
+}
@@ -0,0 +1,336 @@
+package com.hypercube.harmony;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+/**
+ * Binary file holding the chords of a generation, so they can be loaded without running {@link ChordGenerator}
+ *
+ * The file is mapped in memory and read in place, nothing is parsed when it is opened.
+ * It is written in a temporary file then moved, so a mapped catalog is replaced and never modified.
+ *
+ * Layout (big endian):
+ * header: magic, version, number of chords, offset of the string table, scale name (offset, length)
+ * entries sorted by chord name, {@value #ENTRY_SIZE} bytes each:
+ * - root note of the chord (of the root position for an inverted chord)
+ * - bass note
+ * - inversion, 0 for a root position
+ * - number of notes
+ * - pitch classes (bit n = note n modulo 12, from C)
+ * - intervals of the root position, one byte each
+ * - name and type (offset, length) in the string table
+ * - intervals of the chord itself for an inverted chord, one byte each
+ * string table: UTF-8 strings
+ *
+ * @author hypercube software
+ *
+ */
+public class ChordCatalog {
+	static Logger logger = Logger.getLogger(ChordCatalog.class.getName());
+	private static final int MAGIC = 0x43484331; // CHC1
+	private static final int VERSION = 2;
+	private static final int HEADER_SIZE = 32;
+	private static final int ENTRY_SIZE = 40;
+	private static final int MAX_INTERVALS = 8;
+
+	private static final int ROOT = 0;
+	private static final int BASS = 1;
+	private static final int INVERSION = 2;
+	private static final int SIZE = 3;
+	private static final int MASK = 4;
+	private static final int INTERVALS = 6;
+	private static final int NAME_OFFSET = 16;
+	private static final int NAME_LENGTH = 20;
+	private static final int TYPE_LENGTH = 22;
+	private static final int TYPE_OFFSET = 24;
+	private static final int INVERTED_INTERVALS = 28;
+
+	private final ByteBuffer buffer;
+	private final int size;
+	private final int strings;
+
+	/**
+	 * A chord of the catalog, read in place
+	 */
+	public class Entry {
+		private final int position;
+
+		private Entry(int index) {
+			this.position = HEADER_SIZE + index * ENTRY_SIZE;
+		}
+
+		public String getChordName() {
+			return getString(buffer.getInt(position + NAME_OFFSET), buffer.getShort(position + NAME_LENGTH));
+		}
+
+		/**
+		 * @return type of the root position, see {@link Chord#getType()}
+		 */
+		public String getType() {
+			return getString(buffer.getInt(position + TYPE_OFFSET), buffer.getShort(position + TYPE_LENGTH));
+		}
+
+		/**
+		 * @return root note of the root position (0-11)
+		 */
+		public int getRootNote() {
+			return buffer.get(position + ROOT);
+		}
+
+		/**
+		 * @return lowest note of the chord (0-11)
+		 */
+		public int getBass() {
+			return buffer.get(position + BASS);
+		}
+
+		/**
+		 * @return 0 for a root position, see {@link InvertedChord#getInversion()}
+		 */
+		public int getInversion() {
+			return buffer.get(position + INVERSION);
+		}
+
+		public int getSize() {
+			return buffer.get(position + SIZE);
+		}
+
+		/**
+		 * @return pitch classes of the chord (bit n = note n modulo 12)
+		 */
+		public int getMask() {
+			return buffer.getShort(position + MASK) & 0xFFF;
+		}
+
+		/**
+		 * @return interval of the root position, see {@link ChordFormula#getInterval(int)}
+		 */
+		public int getInterval(int index) {
+			return buffer.get(position + INTERVALS + index);
+		}
+
+		/**
+		 * @return the same chord as the generator, shared through {@link ChordRegistry}
+		 */
+		public Chord toChord() throws Exception {
+			int[] intervals = new int[getSize()];
+			for (int i = 0; i < intervals.length; i++) {
+				intervals[i] = getInterval(i);
+			}
+			Chord chord = ChordRegistry.getChord(ChordRegistry.getFormula(intervals, intervals.length), getRootNote());
+			if (getInversion() == 0)
+				return chord;
+			// the formula of the inversion is stored, the inversion index is not needed
+			for (int i = 0; i < intervals.length; i++) {
+				intervals[i] = buffer.get(position + INVERTED_INTERVALS + i);
+			}
+			return ChordRegistry.getInvertedChord(chord, getInversion(),
+					ChordRegistry.getFormula(intervals, intervals.length));
+		}
+
+		@Override
+		public String toString() {
+			return getChordName();
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		ChordGenerator.initLogs();
+		Path file = Paths.get(args.length > 0 ? args[0] : "./chords/chords.bin");
+		long start = System.currentTimeMillis();
+		List<Chord> chords = new ChordGenerator(null).computeChords();
+		write(file, "", chords);
+		logger.info(chords.size() + " chords written in " + file + " in " + (System.currentTimeMillis() - start) + "ms");
+	}
+
+	/**
+	 * Write the chords of a scale, or of all the keys if the scale is null
+	 */
+	public static void write(Path file, Scale scale) throws IOException {
+		write(file, scale != null ? scale.getName() : "", new ChordGenerator(scale).computeChords());
+	}
+
+	/**
+	 * The previous file is replaced atomically, the services which mapped it keep reading the old chords
+	 *
+	 * @param chords chords with distinct names, see {@link ChordGenerator#getChords()}
+	 */
+	public static void write(Path file, String scaleName, Collection<Chord> chords) throws IOException {
+		List<Chord> sorted = new ArrayList<Chord>(chords);
+		sorted.sort(Comparator.comparing(Chord::getChordName));
+		ByteArrayOutputStream strings = new ByteArrayOutputStream();
+		ByteBuffer entries = ByteBuffer.allocate(HEADER_SIZE + sorted.size() * ENTRY_SIZE);
+		int scaleNameOffset = addString(strings, scaleName);
+		int scaleNameLength = strings.size() - scaleNameOffset;
+		entries.putInt(MAGIC);
+		entries.putInt(VERSION);
+		entries.putInt(sorted.size());
+		entries.putInt(0); // string table offset, see below
+		entries.putInt(scaleNameOffset);
+		entries.putInt(scaleNameLength);
+		for (int i = 0; i < sorted.size(); i++) {
+			Chord chord = sorted.get(i);
+			Chord root = chord instanceof InvertedChord ? ((InvertedChord) chord).getBaseChord() : chord;
+			ChordFormula formula = root.getFormula();
+			ChordFormula chordFormula = chord.getFormula();
+			if (formula.getSize() > MAX_INTERVALS || formula.getInterval(formula.getSize() - 1) > Byte.MAX_VALUE
+					|| chordFormula.getInterval(chordFormula.getSize() - 1) > Byte.MAX_VALUE)
+				throw new IOException("Chord too large for the catalog: " + chord.getChordName());
+			int mask = 0;
+			for (int note : chord.getOffsets()) {
+				mask |= 1 << (note % 12);
+			}
+			int position = HEADER_SIZE + i * ENTRY_SIZE;
+			entries.put(position + ROOT, (byte) (root.getBaseNote() % 12));
+			entries.put(position + BASS, (byte) (chord.getOffsets().get(0) % 12));
+			entries.put(position + INVERSION, (byte) (chord instanceof InvertedChord ? ((InvertedChord) chord).getInversion() : 0));
+			entries.put(position + SIZE, (byte) formula.getSize());
+			entries.putShort(position + MASK, (short) mask);
+			for (int n = 0; n < formula.getSize(); n++) {
+				entries.put(position + INTERVALS + n, (byte) formula.getInterval(n));
+			}
+			if (chord instanceof InvertedChord) {
+				for (int n = 0; n < chordFormula.getSize(); n++) {
+					entries.put(position + INVERTED_INTERVALS + n, (byte) chordFormula.getInterval(n));
+				}
+			}
+			int nameOffset = addString(strings, chord.getChordName());
+			entries.putInt(position + NAME_OFFSET, nameOffset);
+			entries.putShort(position + NAME_LENGTH, (short) (strings.size() - nameOffset));
+			int typeOffset = addString(strings, chord.getType());
+			entries.putInt(position + TYPE_OFFSET, typeOffset);
+			entries.putShort(position + TYPE_LENGTH, (short) (strings.size() - typeOffset));
+		}
+		entries.putInt(12, entries.capacity());
+		entries.clear();
+		if (file.getParent() != null)
+			Files.createDirectories(file.getParent());
+		Path temp = file.resolveSibling(file.getFileName() + "." + UUID.randomUUID() + ".tmp");
+		try {
+			try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+				ByteBuffer stringTable = ByteBuffer.wrap(strings.toByteArray());
+				while (entries.hasRemaining()) {
+					channel.write(entries);
+				}
+				while (stringTable.hasRemaining()) {
+					channel.write(stringTable);
+				}
+			}
+			Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	private static int addString(ByteArrayOutputStream strings, String value) {
+		int offset = strings.size();
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		strings.write(bytes, 0, bytes.length);
+		return offset;
+	}
+
+	/**
+	 * Map a catalog in memory
+	 */
+	public static ChordCatalog open(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			// the mapping stays valid once the channel is closed
+			return new ChordCatalog(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		}
+	}
+
+	private ChordCatalog(ByteBuffer buffer) throws IOException {
+		this.buffer = buffer;
+		if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC)
+			throw new IOException("Not a chord catalog");
+		if (buffer.getInt(4) != VERSION)
+			throw new IOException("Unsupported chord catalog version " + buffer.getInt(4));
+		size = buffer.getInt(8);
+		strings = buffer.getInt(12);
+		if (size < 0 || size > (buffer.capacity() - HEADER_SIZE) / ENTRY_SIZE
+				|| strings < HEADER_SIZE + size * ENTRY_SIZE || strings > buffer.capacity())
+			throw new IOException("Not a chord catalog");
+	}
+
+	private String getString(int offset, int length) {
+		byte[] bytes = new byte[length];
+		for (int i = 0; i < length; i++) {
+			bytes[i] = buffer.get(strings + offset + i);
+		}
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @return name of the scale of the chords, empty for all the keys
+	 */
+	public String getScaleName() {
+		return getString(buffer.getInt(16), buffer.getInt(20));
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public Entry get(int index) {
+		if (index < 0 || index >= size)
+			throw new IndexOutOfBoundsException("Chord " + index + " out of " + size);
+		return new Entry(index);
+	}
+
+	/**
+	 * Binary search on the names
+	 *
+	 * @return index of the chord, -1 if it is not in the catalog
+	 */
+	public int indexOf(String chordName) {
+		int low = 0;
+		int high = size - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			int c = get(middle).getChordName().compareTo(chordName);
+			if (c < 0)
+				low = middle + 1;
+			else if (c > 0)
+				high = middle - 1;
+			else
+				return middle;
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the chords of the catalog, built when they are read
+	 */
+	public List<Chord> getChords() {
+		return new AbstractList<Chord>() {
+			@Override
+			public Chord get(int index) {
+				try {
+					return ChordCatalog.this.get(index).toChord();
+				} catch (Exception e) {
+					throw new IllegalStateException("Invalid chord " + index, e);
+				}
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+		};
+	}
+}
@@ -0,0 +1,306 @@
+package com.hypercube.harmony;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.IntStream;
+
+/**
+ * Voice leading distances between all the chords of a catalog, see {@link Chord#distance(Chord)}
+ *
+ * The distances are computed once, in parallel, and stored in a dense int array (row = from, column = to).
+ * The matrix can be saved on disk and loaded back for the same catalog. The file holds the chords and the hash
+ * of the inputs of their generation (see {@link ChordManifest#computeHash(Scale)}), so it is loaded without
+ * running {@link ChordGenerator}.
+ *
+ * Chords are sorted by name, so the matrix of a catalog is always the same.
+ *
+ * @author hypercube software
+ *
+ */
+public class ChordDistanceMatrix {
+	static Logger logger = Logger.getLogger(ChordDistanceMatrix.class.getName());
+	private static final int MAGIC = 0x43444D32; // CDM2
+
+	private final Chord[] chords;
+	private final Map<String, Integer> indexes = new HashMap<String, Integer>();
+	private final int[] distances;
+	/**
+	 * Hash of the inputs of the catalog, null if it is unknown
+	 */
+	private String hash;
+
+	/**
+	 * Compute the matrix of the chords of a scale, or of all the keys if the scale is null
+	 */
+	public static ChordDistanceMatrix compute(Scale scale) {
+		ChordDistanceMatrix matrix = new ChordDistanceMatrix(new ChordGenerator(scale).computeChords());
+		matrix.hash = ChordManifest.computeHash(scale);
+		return matrix;
+	}
+
+	/**
+	 * Load the matrix saved for this scale, or compute it and save it if the file is missing or was saved for other inputs
+	 */
+	public static ChordDistanceMatrix get(Scale scale, Path file) {
+		String hash = ChordManifest.computeHash(scale);
+		if (Files.exists(file)) {
+			try {
+				ChordDistanceMatrix matrix = read(file, hash, null);
+				if (matrix != null)
+					return matrix;
+			} catch (IOException e) {
+				logger.log(Level.SEVERE, "Unexpected error", e);
+			}
+		}
+		ChordDistanceMatrix matrix = compute(scale);
+		try {
+			matrix.save(file);
+		} catch (IOException e) {
+			logger.log(Level.SEVERE, "Unexpected error", e);
+		}
+		return matrix;
+	}
+
+	public ChordDistanceMatrix(Collection<Chord> catalog) {
+		this(catalog, null);
+	}
+
+	private ChordDistanceMatrix(Collection<Chord> catalog, int[] distances) {
+		chords = catalog.toArray(new Chord[0]);
+		Arrays.sort(chords, Comparator.comparing(Chord::getChordName));
+		int n = chords.length;
+		int[][] notes = new int[n][];
+		for (int i = 0; i < n; i++) {
+			if (indexes.put(chords[i].getChordName(), i) != null)
+				throw new IllegalArgumentException("Duplicate chord " + chords[i].getChordName());
+			notes[i] = chords[i].getNoteArray();
+		}
+		if (distances == null) {
+			int[] result = new int[n * n];
+			IntStream.range(0, n).parallel().forEach(i -> {
+				for (int j = 0; j < n; j++) {
+					result[i * n + j] = Chord.distance(notes[i], notes[j]);
+				}
+			});
+			distances = result;
+		}
+		this.distances = distances;
+	}
+
+	public int size() {
+		return chords.length;
+	}
+
+	public Chord getChord(int index) {
+		return chords[index];
+	}
+
+	/**
+	 * @return index of a chord in the matrix, -1 if it is not in the catalog
+	 */
+	public int indexOf(String chordName) {
+		Integer index = indexes.get(chordName);
+		return index != null ? index : -1;
+	}
+
+	/**
+	 * Same as {@link Chord#distance(Chord)}
+	 */
+	public int distance(int from, int to) {
+		return distances[from * chords.length + to];
+	}
+
+	/**
+	 * @return the distances row by row, this is the internal array and it must not be modified
+	 */
+	int[] getDistances() {
+		return distances;
+	}
+
+	/**
+	 * @return the indexes of the k closest chords, closest first, the chord itself is excluded.
+	 *         Chords at the same distance are sorted by name
+	 */
+	public int[] getNearest(int index, int k) {
+		int n = chords.length;
+		k = Math.min(k, n - 1);
+		int[] nearest = new int[Math.max(k, 0)];
+		int[] nearestDistances = new int[nearest.length];
+		int count = 0;
+		int row = index * n;
+		for (int j = 0; j < n && k > 0; j++) {
+			if (j == index)
+				continue;
+			int distance = distances[row + j];
+			if (count == k && distance >= nearestDistances[k - 1])
+				continue;
+			// insertion in the sorted selection
+			int position = count < k ? count++ : k - 1;
+			while (position > 0 && nearestDistances[position - 1] > distance) {
+				nearest[position] = nearest[position - 1];
+				nearestDistances[position] = nearestDistances[position - 1];
+				position--;
+			}
+			nearest[position] = j;
+			nearestDistances[position] = distance;
+		}
+		return nearest;
+	}
+
+	/**
+	 * @return the k closest chords, closest first, empty if the chord is not in the catalog
+	 */
+	public List<Chord> getNearest(Chord chord, int k) {
+		List<Chord> result = new ArrayList<Chord>();
+		int index = indexOf(chord.getChordName());
+		if (index != -1) {
+			for (int i : getNearest(index, k)) {
+				result.add(chords[i]);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * File format: magic, hash of the inputs (empty if unknown), number of chords, chords, then the distances row by row
+	 * A chord is its name, root note, inversion, number of notes, intervals of the root position
+	 * and intervals of the chord itself for an inverted chord, one byte each (see {@link ChordCatalog})
+	 *
+	 * The file is written under a temporary name then moved, a reader never sees a partial file
+	 */
+	public void save(Path file) throws IOException {
+		if (file.getParent() != null)
+			Files.createDirectories(file.getParent());
+		Path temp = file.resolveSibling(file.getFileName() + "." + UUID.randomUUID() + ".tmp");
+		try {
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+					Files.newOutputStream(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE), 1 << 16))) {
+				out.writeInt(MAGIC);
+				out.writeUTF(hash != null ? hash : "");
+				out.writeInt(chords.length);
+				for (Chord chord : chords) {
+					out.writeUTF(chord.getChordName());
+					writeChord(out, chord);
+				}
+				ByteBuffer row = ByteBuffer.allocate(chords.length * 4);
+				for (int i = 0; i < chords.length; i++) {
+					row.clear();
+					row.asIntBuffer().put(distances, i * chords.length, chords.length);
+					out.write(row.array());
+				}
+			}
+			Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	private static void writeChord(DataOutputStream out, Chord chord) throws IOException {
+		Chord root = chord instanceof InvertedChord ? ((InvertedChord) chord).getBaseChord() : chord;
+		ChordFormula formula = root.getFormula();
+		ChordFormula chordFormula = chord.getFormula();
+		if (formula.getInterval(formula.getSize() - 1) > 0xFF || chordFormula.getInterval(chordFormula.getSize() - 1) > 0xFF)
+			throw new IOException("Chord too large for the file: " + chord.getChordName());
+		out.writeByte(root.getBaseNote() % 12);
+		out.writeByte(chord instanceof InvertedChord ? ((InvertedChord) chord).getInversion() : 0);
+		out.writeByte(formula.getSize());
+		for (int i = 0; i < formula.getSize(); i++) {
+			out.writeByte(formula.getInterval(i));
+		}
+		if (chord instanceof InvertedChord) {
+			for (int i = 0; i < chordFormula.getSize(); i++) {
+				out.writeByte(chordFormula.getInterval(i));
+			}
+		}
+	}
+
+	/**
+	 * @return the chord of {@link ChordRegistry} described in the file, see {@link #save(Path)}
+	 */
+	private static Chord readChord(DataInputStream in) throws IOException {
+		int rootNote = in.readUnsignedByte();
+		int inversion = in.readUnsignedByte();
+		int[] intervals = new int[in.readUnsignedByte()];
+		for (int i = 0; i < intervals.length; i++) {
+			intervals[i] = in.readUnsignedByte();
+		}
+		int[] invertedIntervals = null;
+		if (inversion > 0) {
+			invertedIntervals = new int[intervals.length];
+			for (int i = 0; i < invertedIntervals.length; i++) {
+				invertedIntervals[i] = in.readUnsignedByte();
+			}
+		}
+		try {
+			Chord chord = ChordRegistry.getChord(ChordRegistry.getFormula(intervals, intervals.length), rootNote);
+			if (inversion == 0)
+				return chord;
+			return ChordRegistry.getInvertedChord(chord, inversion,
+					ChordRegistry.getFormula(invertedIntervals, invertedIntervals.length));
+		} catch (Exception e) {
+			throw new IOException("Invalid chord in the distance matrix", e);
+		}
+	}
+
+	/**
+	 * @return null if the file was saved for another catalog
+	 */
+	public static ChordDistanceMatrix load(Path file, Collection<Chord> catalog) throws IOException {
+		return read(file, null, catalog);
+	}
+
+	/**
+	 * @param hash expected hash of the inputs, null to accept any file
+	 * @param catalog chords of the matrix, null to use the chords stored in the file
+	 * @return null if the file was saved for other inputs or another catalog
+	 */
+	private static ChordDistanceMatrix read(Path file, String hash, Collection<Chord> catalog) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+			if (in.readInt() != MAGIC)
+				return null;
+			String fileHash = in.readUTF();
+			if (hash != null && !hash.equals(fileHash))
+				return null;
+			int n = in.readInt();
+			if (n < 0 || (catalog != null && n != catalog.size()))
+				return null;
+			String[] names = new String[n];
+			List<Chord> chords = new ArrayList<Chord>(n);
+			for (int i = 0; i < n; i++) {
+				names[i] = in.readUTF();
+				chords.add(readChord(in));
+			}
+			int[] distances = new int[n * n];
+			byte[] row = new byte[n * 4];
+			for (int i = 0; i < n; i++) {
+				in.readFully(row);
+				ByteBuffer.wrap(row).asIntBuffer().get(distances, i * n, n);
+			}
+			ChordDistanceMatrix matrix = new ChordDistanceMatrix(catalog != null ? catalog : chords, distances);
+			for (int i = 0; i < n; i++) {
+				if (!names[i].equals(matrix.chords[i].getChordName()))
+					return null;
+			}
+			matrix.hash = fileHash.isEmpty() ? null : fileHash;
+			return matrix;
+		}
+	}
+}
@@ -1,95 +1,222 @@
 package com.hypercube.harmony;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashSet;
+import java.util.AbstractList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * Intervals are from the root note
  * inner intervals are relative to the previous note in the chord
- * 
- * C major: 
+ *
+ * C major:
  * intervals = 0 4 7 = P1,M3,P5
  * inner intervals = 0,4,3 = P1,M3,m3
- * 
- * 
+ *
+ * Internally the formula is stored as primitives:
+ * - a sorted int[] of intervals
+ * - a 12 bits mask of the pitch classes used by the chord (bit n = note n modulo 12)
+ * The List getters are lazy views on top of them
+ *
  * @author hypercube software
  *
  */
 public class ChordFormula {
-	private List<Integer> intervals = new ArrayList<Integer>();
-	private List<Integer> innerIntervals = new ArrayList<Integer>();
-	
+	private final int[] offsets;
+	private final int mask;
+	private final long intervalMask;
+	private List<Integer> intervals;
+	private List<Integer> innerIntervals;
+	/**
+	 * Chords by root note, only for the formulas of {@link ChordRegistry}
+	 */
+	AtomicReferenceArray<Chord> chords;
+
 	public List<Integer> getInnerIntervals() {
+		if (innerIntervals==null)
+		{
+			innerIntervals = new AbstractList<Integer>() {
+				@Override
+				public Integer get(int index) {
+					return index==0 ? offsets[0] : offsets[index]-offsets[index-1];
+				}
+				@Override
+				public int size() {
+					return offsets.length;
+				}
+			};
+		}
 		return innerIntervals;
 	}
 	/**
-	 * If we collapse all notes in a single octave, 
+	 * If we collapse all notes in a single octave,
 	 * We should have no collisions
-	 * 
+	 *
 	 * @param offsets
 	 * @return
 	 */
 	public static boolean isValid(Integer[] offsets) {
-		HashSet<Integer> notes = new HashSet<Integer>();
+		int mask = 0;
 		int prevOffset = -1;
 		int maxSpread = 0;
 		for (Integer i : offsets)
-		{	
+		{
 			if (i<prevOffset)
 				return false;
-			notes.add(i%12);
+			mask |= 1<<(i%12);
 			if (prevOffset!=-1)
 			{
 				maxSpread = Math.max(maxSpread, i-prevOffset);
 			}
-			prevOffset = i;			
+			prevOffset = i;
 		}
-		boolean valid = (notes.size()==offsets.length) && (offsets.length<=2 || maxSpread>1);
-		return valid;
+		return isValid(mask, offsets.length, maxSpread);
+	}
+	/**
+	 * Same as {@link #isValid(Integer[])} on the first "size" entries of a primitive array
+	 */
+	public static boolean isValid(int[] offsets, int size) {
+		int mask = 0;
+		int prevOffset = -1;
+		int maxSpread = 0;
+		for (int n=0;n<size;n++)
+		{
+			int i = offsets[n];
+			if (i<prevOffset)
+				return false;
+			mask |= 1<<(i%12);
+			if (prevOffset!=-1)
+			{
+				maxSpread = Math.max(maxSpread, i-prevOffset);
+			}
+			prevOffset = i;
+		}
+		return isValid(mask, size, maxSpread);
+	}
+	/**
+	 * Allocation free version of the check, used when the caller already track the chord incrementally
+	 *
+	 * @param mask pitch classes of the notes (bit n = note n modulo 12)
+	 * @param nbNotes number of notes in the chord
+	 * @param maxSpread biggest gap between two consecutive notes
+	 * @return true if there is no collision in the mask
+	 */
+	public static boolean isValid(int mask, int nbNotes, int maxSpread) {
+		return (Integer.bitCount(mask)==nbNotes) && (nbNotes<=2 || maxSpread>1);
 	}
 	/**
 	 * As input we get a list of notes (offsets from the beginning of the the octave)
 	 * Internally we compute the intervals that build this chord
-	 * 
+	 *
 	 * @param offsets
 	 * @throws Exception
 	 */
 	public ChordFormula(Integer[] offsets) throws Exception {
+		this(unbox(offsets), offsets.length);
+	}
+	/**
+	 * Primitive version of {@link #ChordFormula(Integer[])}, only the first "size" entries of the array are used
+	 * The array is not kept by the formula
+	 *
+	 * @param offsets
+	 * @param size
+	 * @throws Exception
+	 */
+	public ChordFormula(int[] offsets, int size) throws Exception {
 		super();
-		
-		if (!isValid(offsets))
+
+		if (!isValid(offsets, size))
 		{
 			throw new Exception("Illegal formula, duplicate notes");
 		}
-		
-		for (Integer i : offsets)
-		{			
-			int offset = i-offsets[0];
+
+		int[] intervals = new int[size];
+		int mask = 0;
+		for (int n=0;n<size;n++)
+		{
+			int offset = offsets[n]-offsets[0];
 			if (offset<0)
 				throw new Error("invalid offset");
-			this.intervals.add(offset);
-			
+			intervals[n] = offset;
+			mask |= 1<<(offset%12);
 		}
-
-		Collections.sort(intervals);
-		Integer prevInterval = 0;
-		for (Integer i : intervals)
+		Arrays.sort(intervals);
+		this.offsets = intervals;
+		this.mask = mask;
+		long intervalMask = 0;
+		for (int i : intervals)
+		{
+			if (i>=64)
+			{
+				intervalMask = 0;
+				break;
+			}
+			intervalMask |= 1L<<i;
+		}
+		this.intervalMask = intervalMask;
+	}
+	/**
+	 * Copy of another formula, see {@link ChordRegistry#intern(ChordFormula)}
+	 */
+	ChordFormula(ChordFormula formula) {
+		this.offsets = formula.offsets;
+		this.mask = formula.mask;
+		this.intervalMask = formula.intervalMask;
+	}
+	private static int[] unbox(Integer[] offsets) {
+		int[] result = new int[offsets.length];
+		for (int i=0;i<offsets.length;i++)
 		{
-			innerIntervals.add(i-prevInterval);
-			prevInterval = i;
+			result[i] = offsets[i];
 		}
+		return result;
 	}
 
 	public List<Integer> getIntervals() {
+		if (intervals==null)
+		{
+			intervals = new AbstractList<Integer>() {
+				@Override
+				public Integer get(int index) {
+					return offsets[index];
+				}
+				@Override
+				public int size() {
+					return offsets.length;
+				}
+			};
+		}
 		return intervals;
 	}
+	/**
+	 * @return pitch classes used by the chord relative to its root (bit n = interval n modulo 12)
+	 */
+	public int getMask() {
+		return mask;
+	}
+	/**
+	 * @return intervals used by the chord, without octave reduction (bit n = interval n), 0 if an interval is above 63
+	 */
+	public long getIntervalMask() {
+		return intervalMask;
+	}
+	/**
+	 * @return the sorted intervals, this is the internal array and it must not be modified
+	 */
+	int[] getOffsets() {
+		return offsets;
+	}
+	public int getSize() {
+		return offsets.length;
+	}
+	public int getInterval(int index) {
+		return offsets[index];
+	}
 
 	public String toString() {
 		String l1 = "";
 		String l2 = "";
-		for (int i : intervals)
+		for (int i : offsets)
 		{
 			if (l1.length()>0)
 			{
@@ -103,9 +230,9 @@ public class ChordFormula {
 	}
 	public int getFifthIndex()
 	{
-		for (int i=0;i<intervals.size();i++)
+		for (int i=0;i<offsets.length;i++)
 		{
-			if (intervals.get(i)==7)
+			if (offsets[i]==7)
 				return i;
 		}
 		return -1;
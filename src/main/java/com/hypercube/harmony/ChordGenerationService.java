@@ -0,0 +1,253 @@
+package com.hypercube.harmony;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Run many generations at the same time
+ *
+ * The service keeps no state about the runs: each one gets its own {@link ChordGenerator}, its own budget
+ * and its own {@link CancellationToken}, cancelling the returned future stops the run.
+ * The number of runs in progress is bounded, a submission waits until a run finishes (backpressure).
+ *
+ * Runs are executed by virtual threads on JDK 21 and above, by a fixed pool before, unless an executor is given.
+ * Runs writing in the same folder share its manifest in incremental mode, see {@link ChordManifest}.
+ *
+ * @author hypercube software
+ *
+ */
+public class ChordGenerationService implements AutoCloseable {
+	static Logger logger = Logger.getLogger(ChordGenerationService.class.getName());
+
+	private final Executor executor;
+	/**
+	 * Executor created by the service, shut down by {@link #close()}
+	 */
+	private final ExecutorService ownExecutor;
+	private final Semaphore runs;
+	private final int maxConcurrentRuns;
+	private volatile GraphSink.Format format = GraphSink.Format.GRAPHML;
+	private volatile boolean compressed;
+	private volatile boolean incremental;
+
+	/**
+	 * One run per processor on the default executor
+	 */
+	public ChordGenerationService() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	public ChordGenerationService(int maxConcurrentRuns) {
+		this(null, maxConcurrentRuns);
+	}
+
+	/**
+	 * @param executor null for the default executor
+	 * @param maxConcurrentRuns runs in progress before a submission waits
+	 */
+	public ChordGenerationService(Executor executor, int maxConcurrentRuns) {
+		if (maxConcurrentRuns < 1)
+			throw new IllegalArgumentException("At least one run is needed: " + maxConcurrentRuns);
+		this.maxConcurrentRuns = maxConcurrentRuns;
+		runs = new Semaphore(maxConcurrentRuns);
+		if (executor == null) {
+			ownExecutor = createDefaultExecutor(maxConcurrentRuns);
+			this.executor = ownExecutor;
+		} else {
+			ownExecutor = null;
+			this.executor = executor;
+		}
+	}
+
+	/**
+	 * Virtual threads are looked up by reflection so the code still runs on Java 11
+	 */
+	private static ExecutorService createDefaultExecutor(int nbThreads) {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			logger.fine("No virtual threads, using a pool of " + nbThreads + " threads");
+		}
+		return Executors.newFixedThreadPool(nbThreads, runnable -> {
+			Thread thread = new Thread(runnable, "chord-generation");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	public GraphSink.Format getFormat() {
+		return format;
+	}
+
+	/**
+	 * See {@link ChordGenerator#setFormat(GraphSink.Format)}, applies to the next submissions
+	 */
+	public void setFormat(GraphSink.Format format) {
+		this.format = format;
+	}
+
+	public boolean isCompressed() {
+		return compressed;
+	}
+
+	/**
+	 * See {@link ChordGenerator#setCompressed(boolean)}, applies to the next submissions
+	 */
+	public void setCompressed(boolean compressed) {
+		this.compressed = compressed;
+	}
+
+	public boolean isIncremental() {
+		return incremental;
+	}
+
+	/**
+	 * See {@link ChordGenerator#setIncremental(boolean)}, applies to the next submissions in a folder
+	 */
+	public void setIncremental(boolean incremental) {
+		this.incremental = incremental;
+	}
+
+	public int getMaxConcurrentRuns() {
+		return maxConcurrentRuns;
+	}
+
+	/**
+	 * @return number of runs submitted and not finished yet
+	 */
+	public int getActiveRuns() {
+		return maxConcurrentRuns - runs.availablePermits();
+	}
+
+	/**
+	 * Generate a file in a folder, several runs can share the same folder
+	 *
+	 * @param scale null for all the keys
+	 * @param config limits and budget, null for the defaults
+	 */
+	public CompletableFuture<GenerationResult> generate(Scale scale, GeneratorConfig config, File folder) {
+		GraphSink.Format format = this.format;
+		boolean compressed = this.compressed;
+		boolean incremental = this.incremental;
+		return submit(scale, config, generator -> {
+			generator.setOutputFolder(folder);
+			generator.setFormat(format);
+			generator.setCompressed(compressed);
+			if (incremental) {
+				generator.setIncremental(true);
+				generator.setManifest(getManifest(folder));
+			}
+			File file = generator.writeFile();
+			if (incremental)
+				getManifest(folder).save();
+			return file;
+		});
+	}
+
+	/**
+	 * Generate the graph in a stream, closed at the end
+	 */
+	public CompletableFuture<GenerationResult> generate(Scale scale, GeneratorConfig config, OutputStream output) {
+		GraphSink.Format format = this.format;
+		boolean compressed = this.compressed;
+		return submit(scale, config, generator -> {
+			generator.setFormat(format);
+			generator.setCompressed(compressed);
+			generator.generateChords(Channels.newChannel(output), null);
+			return null;
+		});
+	}
+
+	/**
+	 * Send the graph to a sink, closed at the end
+	 */
+	public CompletableFuture<GenerationResult> generate(Scale scale, GeneratorConfig config, GraphSink sink) {
+		return submit(scale, config, generator -> {
+			generator.writeChords(sink);
+			return null;
+		});
+	}
+
+	private static ChordManifest getManifest(File folder) throws IOException {
+		folder.mkdirs();
+		return ChordManifest.get(folder);
+	}
+
+	/**
+	 * What a run does with its generator
+	 */
+	private interface Output {
+		/**
+		 * @return the file generated, null if there is none
+		 */
+		File write(ChordGenerator generator) throws IOException;
+	}
+
+	private CompletableFuture<GenerationResult> submit(Scale scale, GeneratorConfig config, Output output) {
+		CompletableFuture<GenerationResult> future = new CompletableFuture<GenerationResult>();
+		try {
+			runs.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			future.completeExceptionally(e);
+			return future;
+		}
+		CancellationToken token = new CancellationToken();
+		future.whenComplete((result, e) -> {
+			if (e instanceof CancellationException)
+				token.cancel();
+		});
+		try {
+			executor.execute(() -> run(scale, config, output, token, future));
+		} catch (RejectedExecutionException e) {
+			runs.release();
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+
+	private void run(Scale scale, GeneratorConfig config, Output output, CancellationToken token,
+			CompletableFuture<GenerationResult> future) {
+		try {
+			if (future.isDone())
+				return;
+			long start = System.nanoTime();
+			ChordGenerator generator = new ChordGenerator(scale);
+			if (config != null)
+				generator.setConfig(config);
+			generator.setCancellationToken(token);
+			File file = output.write(generator);
+			future.complete(new GenerationResult(scale, generator.getChords(), generator.getStopReason(), file,
+					generator.isUpToDate(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+		} catch (Throwable e) {
+			if (!future.isDone())
+				logger.log(Level.SEVERE,"Unexpected error",e);
+			future.completeExceptionally(e);
+		} finally {
+			runs.release();
+		}
+	}
+
+	/**
+	 * Wait for the runs in progress and stop the executor created by the service
+	 */
+	@Override
+	public void close() {
+		runs.acquireUninterruptibly(maxConcurrentRuns);
+		runs.release(maxConcurrentRuns);
+		if (ownExecutor != null)
+			ownExecutor.shutdown();
+	}
+}
@@ -1,20 +1,38 @@
 package com.hypercube.harmony;
 
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
+import java.io.OutputStream;
 import java.net.URL;
-import java.nio.charset.StandardCharsets;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Spliterators;
+import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.LogManager;
 import java.util.logging.Logger;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public class ChordGenerator {
 	static Logger logger = Logger.getLogger(ChordGenerator.class.getName());
@@ -34,88 +52,480 @@ public class ChordGenerator {
 	    }
 	}
 	
-	private class Edge {
-		public Edge(String edgeId, String name, String from, String to, String color, boolean dashed) {
-			this.edgeId = edgeId;
-			this.from = from;
-			this.to = to;
-			this.name = name;
-			this.color = color;
-			this.dashed = dashed;
-		}
-
-		String edgeId;
-		String name;
-		String from;
-		String to;
-		String color;
-		boolean dashed;
+	/**
+	 * Receive the nodes of the tree in the order of the serial depth first recursion.
+	 * Node ids are the values of a counter incremented for each visited node,
+	 * parent id 0 means "the parent of the explored subtree"
+	 */
+	static abstract class Exploration {
+		int nodeCounter;
+		/**
+		 * reused to build the labels of the nodes
+		 */
+		final StringBuilder label = new StringBuilder();
+		/**
+		 * counters of the recursion, added to {@link GeneratorStats} once per subtree
+		 */
+		final long[] counts = new long[GeneratorStats.NB_COUNTERS];
+		/**
+		 * nodes left to visit before asking the budget again, see {@link Budget#acquire()}
+		 */
+		long nodesGranted;
+
+		/**
+		 * notes are only valid during the call
+		 */
+		abstract void emit(int nodeId, int parentId, int interval, String name, String color, int[] notes, int size);
+
+		abstract void addChord(Chord chord);
+
+		/**
+		 * Append the nodes found by a subtree explored separately, as if it was explored right now
+		 */
+		void replay(RecordedExploration subtree, int parentId) {
+			int base = nodeCounter;
+			for (int n = 0; n < subtree.size; n++) {
+				int parent = subtree.parentIds[n];
+				int[] notes = subtree.notes != null ? subtree.notes[n] : null;
+				emit(base + subtree.nodeIds[n], parent == 0 ? parentId : base + parent, subtree.intervals[n],
+						subtree.names[n], subtree.colors[n], notes, notes != null ? notes.length : 0);
+			}
+			for (Chord chord : subtree.chords.values()) {
+				addChord(chord);
+			}
+			nodeCounter += subtree.nodeCounter;
+		}
+	}
+
+	/**
+	 * Serial exploration, nodes are directly sent to the sink
+	 */
+	private class DirectExploration extends Exploration {
+		@Override
+		void emit(int nodeId, int parentId, int interval, String name, String color, int[] notes, int size) {
+			sink.edge(edgeCounter++, parentId, nodeId, Intervals.getInterval(interval), "#000000", false);
+			sink.node(nodeId, name, color);
+		}
+
+		@Override
+		void addChord(Chord chord) {
+			if (!chords.containsKey(chord.getChordName())) {
+				chords.put(chord.getChordName(), chord);
+			}
+		}
+	}
+
+	/**
+	 * Exploration of a subtree by a fork/join task, nodes are kept in memory with local ids
+	 * until they can be replayed in the serial order
+	 */
+	static class RecordedExploration extends Exploration {
+		int size;
+		int nbChordFound;
+		int[] nodeIds = new int[16];
+		int[] parentIds = new int[16];
+		int[] intervals = new int[16];
+		String[] names = new String[16];
+		String[] colors = new String[16];
+		/**
+		 * notes of each node, only kept on demand
+		 */
+		int[][] notes;
+		Map<String, Chord> chords = new LinkedHashMap<String, Chord>();
+
+		RecordedExploration() {
+		}
+
+		RecordedExploration(boolean keepNotes) {
+			if (keepNotes)
+				notes = new int[16][];
+		}
+
+		@Override
+		void emit(int nodeId, int parentId, int interval, String name, String color, int[] notes, int size) {
+			if (this.size == nodeIds.length) {
+				int capacity = this.size * 2;
+				nodeIds = Arrays.copyOf(nodeIds, capacity);
+				parentIds = Arrays.copyOf(parentIds, capacity);
+				intervals = Arrays.copyOf(intervals, capacity);
+				names = Arrays.copyOf(names, capacity);
+				colors = Arrays.copyOf(colors, capacity);
+				if (this.notes != null)
+					this.notes = Arrays.copyOf(this.notes, capacity);
+			}
+			nodeIds[this.size] = nodeId;
+			parentIds[this.size] = parentId;
+			intervals[this.size] = interval;
+			names[this.size] = name;
+			colors[this.size] = color;
+			if (this.notes != null)
+				this.notes[this.size] = Arrays.copyOf(notes, size);
+			this.size++;
+		}
+
+		@Override
+		void addChord(Chord chord) {
+			chords.putIfAbsent(chord.getChordName(), chord);
+		}
+	}
+
+	/**
+	 * Explore a subtree in its own {@link RecordedExploration}
+	 */
+	private class SubtreeTask extends RecursiveTask<RecordedExploration> {
+		private static final long serialVersionUID = 1L;
+		private final int rootNote;
+		private final int[] notes;
+		private final int size;
+		private final int intervalMask;
+		private final int mask;
+		private final int maxSpread;
+
+		/**
+		 * @param notes the task works on its own copy of the stack
+		 */
+		SubtreeTask(int rootNote, int[] notes, int size, int intervalMask, int mask, int maxSpread) {
+			this.rootNote = rootNote;
+			this.notes = Arrays.copyOf(notes, notes.length);
+			this.size = size;
+			this.intervalMask = intervalMask;
+			this.mask = mask;
+			this.maxSpread = maxSpread;
+		}
+
+		@Override
+		protected RecordedExploration compute() {
+			long start = System.nanoTime();
+			RecordedExploration subtree = new RecordedExploration();
+			subtree.nbChordFound = recurseChords(subtree, 0, rootNote, notes, size, intervalMask, mask, maxSpread);
+			budget.release(subtree);
+			stats.add(rootNote, subtree.counts);
+			// the task of the root note includes the tasks of its children
+			if (size == 1)
+				stats.addRootTime(rootNote, System.nanoTime() - start);
+			return subtree;
+		}
 	}
+
+	/**
+	 * Budget of a generation shared by its explorations.
+	 * Nodes are handed out by chunks, so the explorations only synchronize once in a while,
+	 * the time and the cancellation are checked at the same pace.
+	 * In parallel mode, a generation can stop a little before the node budget is exhausted
+	 */
+	private static class Budget {
+		private static final int CHUNK = 1024;
+		private final AtomicLong nodesLeft;
+		/**
+		 * System.nanoTime() at the end of the time budget, only if hasDeadline
+		 */
+		private final long deadline;
+		private final boolean hasDeadline;
+		private final CancellationToken token;
+		private volatile String stopReason;
+
+		Budget(GeneratorConfig config, CancellationToken token) {
+			nodesLeft = new AtomicLong(config.getMaxNodes() > 0 ? config.getMaxNodes() : Long.MAX_VALUE);
+			hasDeadline = config.getMaxTimeMillis() > 0;
+			deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(config.getMaxTimeMillis());
+			this.token = token;
+		}
+
+		/**
+		 * @return the number of nodes granted, 0 if the generation must stop
+		 */
+		long acquire() {
+			if (stopReason != null)
+				return 0;
+			if (token != null && token.isCancelled()) {
+				stopReason = "cancelled";
+				return 0;
+			}
+			if (hasDeadline && System.nanoTime() - deadline >= 0) {
+				stopReason = "time budget exhausted";
+				return 0;
+			}
+			while (true) {
+				long left = nodesLeft.get();
+				if (left == 0) {
+					stopReason = "node budget exhausted";
+					return 0;
+				}
+				// small chunks near the end, so parallel explorations share the last nodes
+				long granted = Math.min(CHUNK, Math.max(1, left >> 6));
+				if (nodesLeft.compareAndSet(left, left - granted))
+					return granted;
+			}
+		}
+
+		/**
+		 * Give back the nodes not visited by a finished exploration
+		 */
+		void release(Exploration exploration) {
+			if (exploration.nodesGranted > 0)
+				nodesLeft.addAndGet(exploration.nodesGranted);
+			exploration.nodesGranted = 0;
+		}
+	}
+
+	/**
+	 * Default limits of the recursion: chords up to 7 notes, up to a 13th, no more than 6 semitones between two notes,
+	 * the indexes are built for them, see {@link GeneratorConfig}
+	 */
+	static final int MAX_NOTES = 7;
+	static final int MAX_INTERVAL = 21; // M13
+	static final int MAX_GAP = 6;
+
+	/**
+	 * In parallel mode, the recursion is split in fork/join tasks up to this number of notes:
+	 * one task per root note, then one task per first interval
+	 */
+	private static final int PARALLEL_SPLIT_NOTES = 2;
+	static final String OUTPUT_FOLDER = "./chords";
+
 	private Scale scale;
-	private PrintWriter out = null;
-	private List<Edge> edges = new ArrayList<Edge>();
+	private GraphSink sink = null;
+	private int edgeCounter;
+	private boolean streaming;
+	private GraphSink.Format format = GraphSink.Format.GRAPHML;
+	private boolean compressed;
+	private File outputFolder = new File(OUTPUT_FOLDER);
 	private HashMap<String,Chord> chords = new  HashMap<String,Chord>();
+	private boolean parallel;
+	private boolean pruning = true;
+	private GeneratorConfig config = new GeneratorConfig();
+	/**
+	 * Limits of the config, and pruning if the config allows it
+	 */
+	private int maxNotes;
+	private int maxInterval;
+	private int maxGap;
+	private boolean prune;
+	private CancellationToken cancellationToken;
+	private Budget budget;
+	private String stopReason;
+	/**
+	 * Intervals allowed by the scale from each root note (bit n = interval n)
+	 */
+	private int[] allowedMasks = new int[12];
+	/**
+	 * Size of the subtrees for each root note, see {@link #countNodes(int)}
+	 */
+	private long[][][] subtreeSizes = new long[12][][];
+	private ChordBatchGenerator batch;
+	private boolean incremental;
+	private ChordManifest manifest;
+	private boolean upToDate;
+	private ForkJoinPool pool = ForkJoinPool.commonPool();
+	private final GeneratorStats stats = GeneratorStats.get();
 	
 	public Collection<Chord> getChords() {
 		return chords.values();
 	}
 
+	public boolean isParallel() {
+		return parallel;
+	}
+
+	/**
+	 * Explore the root notes and their first intervals concurrently.
+	 * The generated file and the chords are the same as a serial generation
+	 */
+	public void setParallel(boolean parallel) {
+		this.parallel = parallel;
+	}
+
+	public void setPool(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	public boolean isPruning() {
+		return pruning;
+	}
+
+	/**
+	 * Skip the subtrees without any named chord, see {@link ReachabilityIndex}
+	 * The generated file and the chords are the same.
+	 * Only possible if the limits are in the indexes, see {@link GeneratorConfig#isIndexed()}
+	 */
+	public void setPruning(boolean pruning) {
+		this.pruning = pruning;
+		prune = pruning && config.isIndexed();
+	}
+
+	/**
+	 * @return a copy of the limits and budget of the generation
+	 */
+	public GeneratorConfig getConfig() {
+		return config.copy();
+	}
+
+	/**
+	 * The config is copied, changing it afterwards has no effect
+	 */
+	public void setConfig(GeneratorConfig config) {
+		this.config = config.copy();
+		applyConfig();
+	}
+
+	public CancellationToken getCancellationToken() {
+		return cancellationToken;
+	}
+
+	/**
+	 * Stop the generation when the token is cancelled, the result is then incomplete
+	 */
+	public void setCancellationToken(CancellationToken cancellationToken) {
+		this.cancellationToken = cancellationToken;
+	}
+
+	/**
+	 * @return false if the last generation was stopped by the budget or the cancellation token.
+	 *         The output is still well formed, but only contains the chords found before the stop
+	 */
+	public boolean isComplete() {
+		return stopReason == null;
+	}
+
+	/**
+	 * @return why the last generation was stopped, null if it is complete
+	 */
+	public String getStopReason() {
+		return stopReason;
+	}
+
+	/**
+	 * Number of nodes of the tree with the current scale and limits, before any generation.
+	 * The recursion visits them all without pruning, far less with pruning
+	 */
+	public long estimateNodes() {
+		long nodes = 1;
+		for (int rn = 0; rn < 12; rn++) {
+			if (isRootNote(rn))
+				nodes += subtreeSizes[rn][0][1];
+		}
+		return nodes;
+	}
+
+	/**
+	 * Take the subtree of each root note from a batch instead of exploring it
+	 */
+	void setBatch(ChordBatchGenerator batch) {
+		this.batch = batch;
+	}
+
+	public boolean isIncremental() {
+		return incremental;
+	}
+
+	/**
+	 * In incremental mode, {@link #generateChords()} does nothing when the file was already generated
+	 * from the same inputs, see {@link ChordManifest}. {@link #getChords()} is then empty
+	 */
+	public void setIncremental(boolean incremental) {
+		this.incremental = incremental;
+	}
+
+	/**
+	 * Share the manifest of the folder between many generators, the caller saves it
+	 */
+	void setManifest(ChordManifest manifest) {
+		this.manifest = manifest;
+	}
+
+	/**
+	 * @return true if the last generation was skipped by the incremental mode
+	 */
+	public boolean isUpToDate() {
+		return upToDate;
+	}
+
+	public boolean isStreaming() {
+		return streaming;
+	}
+
+	/**
+	 * In streaming mode, edges are not kept in memory until the end of the generation.
+	 * They are written in a temporary file which is appended to the graphml file in the footer.
+	 * The generated file is the same. Other formats are always streamed
+	 */
+	public void setStreaming(boolean streaming) {
+		this.streaming = streaming;
+	}
+
+	public GraphSink.Format getFormat() {
+		return format;
+	}
+
+	/**
+	 * Format of the generated files, GraphML by default
+	 */
+	public void setFormat(GraphSink.Format format) {
+		this.format = format;
+	}
+
+	public boolean isCompressed() {
+		return compressed;
+	}
+
+	/**
+	 * Gzip the generated files, ".gz" is added to their name
+	 */
+	public void setCompressed(boolean compressed) {
+		this.compressed = compressed;
+	}
+
+	public File getOutputFolder() {
+		return outputFolder;
+	}
+
+	/**
+	 * Folder of {@link #generateChords()}, "./chords" by default.
+	 * Generators of different scales can share a folder, see {@link ChordGenerationService}
+	 */
+	public void setOutputFolder(File outputFolder) {
+		this.outputFolder = outputFolder;
+	}
+
 	public ChordGenerator(Scale scale) {
 		this.scale = scale;
+		budget = new Budget(config, null);
+		applyConfig();
+	}
+
+	private void applyConfig() {
+		maxNotes = config.getMaxNotes();
+		maxInterval = config.getMaxInterval();
+		maxGap = config.getMaxGap();
+		prune = pruning && config.isIndexed();
+		for (int rn = 0; rn < 12; rn++) {
+			allowedMasks[rn] = 0;
+			for (int i = 0; i <= maxInterval; i++) {
+				if (scale == null || scale.contains(rn + i))
+					allowedMasks[rn] |= 1 << i;
+			}
+			subtreeSizes[rn] = countNodes(allowedMasks[rn]);
+		}
 	}
 
-	private void printHeader() {
-		out.println("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>");
-		out.println("<graphml\r\n" + " xmlns=\"http://graphml.graphdrawing.org/xmlns\"\r\n"
-				+ " xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\"\r\n"
-				+ " xmlns:y=\"http://www.yworks.com/xml/graphml\"\r\n"
-				+ " xmlns:yed=\"http://www.yworks.com/xml/yed/3\"\r\n"
-				+ " xsi:schemaLocation=\"http://graphml.graphdrawing.org/xmlns http://www.yworks.com/xml/schema/graphml/1.1/ygraphml.xsd\">\r\n");
-		out.println("<key for=\"node\" id=\"d0\" yfiles.type=\"nodegraphics\"/>");
-		out.println("<key for=\"edge\" id=\"d1\" yfiles.type=\"edgegraphics\"/>");
-		out.println("<graph edgedefault=\"directed\" id=\"G\">");
-	}
-
-	private void printFooter() {
-		for (Edge edge : edges) {
-			emitEdge(edge);
-		}
-		out.println("</graph>");
-		out.println("</graphml>");
-		out.close();
-	}
-
-	private void emitNode(String id, String name, String color) {
-		out.println("\t<node id=\"" + id + "\">");
-		out.println("\t\t<data key=\"d0\">");
-		out.println("\t\t\t<y:ShapeNode>");/*
-											 * out.println("\t\t\t\t<y:Shape type=\"rectangle\"/>"); out.
-											 * println("\t\t\t\t<y:Geometry height=\"30.0\" width=\"30.0\" x=\"0.0\" y=\"0.0\"/>"
-											 * ); out.
-											 * println("\t\t\t\t<y:BorderStyle color=\"#000000\" type=\"line\" width=\"1.0\"/>"
-											 * );
-											 */
-		out.println("\t\t\t\t<y:Fill color=\"" + color + "\" transparent=\"false\"/>");
-		out.println("\t\t\t\t<y:NodeLabel>" + name + "</y:NodeLabel>");
-		out.println("\t\t\t</y:ShapeNode>");
-		out.println("\t\t</data>");
-		out.println("\t</node>");
-	}
-
-	private void emitEdge(Edge edge) {
-		out.println("\t<edge id=\"" + edge.edgeId + "\" source=\"" + edge.from + "\" target=\"" + edge.to + "\">");
-		out.println("\t\t<data key=\"d1\">");
-		out.println("\t\t\t<PolyLineEdge>");
-		String type = edge.dashed ? "dashed" : "line";
-		out.println("<y:LineStyle color=\"" + edge.color + "\" type=\"" + type + "\" width=\"4.0\"/>");
-		out.println("\t\t\t\t<y:EdgeLabel alignment=\"center\" configuration=\"AutoFlippingLabel\">" + edge.name
-				+ "</y:EdgeLabel>");
-		out.println("\t\t\t</PolyLineEdge>");
-		out.println("\t\t</data>");
-		out.println("\t</edge>");
-	}
-
-	private int nodeCounter;
+	/**
+	 * @param allowedMask intervals allowed by the scale from a root note
+	 * @return the number of nodes visited by the recursion, by last interval and number of notes of the subtree root
+	 */
+	private long[][] countNodes(int allowedMask) {
+		long[][] sizes = new long[maxInterval + 1][maxNotes + 2];
+		for (int i = maxInterval; i >= 0; i--) {
+			for (int n = maxNotes; n >= 1; n--) {
+				long size = 1;
+				for (int j = i + 1; j <= maxInterval && j - i <= maxGap; j++) {
+					if ((allowedMask & (1 << j)) != 0)
+						size += sizes[j][n + 1];
+				}
+				sizes[i][n] = size;
+			}
+		}
+		return sizes;
+	}
 
 	public static void main(String[] args) throws Exception {		
 		initLogs();
@@ -129,148 +539,471 @@ public class ChordGenerator {
 		logger.fine(cg.getChords().size()+" chords");
 	}
 	
+	/**
+	 * Enumerate the chords lazily, without writing any file.
+	 * The stream contains the chords registered by each named node of the tree, in depth first order,
+	 * so a chord name can appear more than once, see {@link ChordSpliterator}
+	 */
+	public Stream<Chord> streamChords() {
+		return StreamSupport.stream(new ChordSpliterator(this), false);
+	}
+
+	/**
+	 * Same as {@link #streamChords()}
+	 */
+	public Iterator<Chord> iterateChords() {
+		return Spliterators.iterator(new ChordSpliterator(this));
+	}
+
+	/**
+	 * Same chords as {@link #getChords()} after a generation, without writing any file:
+	 * the first chord found for each name
+	 */
+	public List<Chord> computeChords() {
+		Map<String, Chord> chords = new LinkedHashMap<String, Chord>();
+		streamChords().forEach(chord -> chords.putIfAbsent(chord.getChordName(), chord));
+		return new ArrayList<Chord>(chords.values());
+	}
+
+	/**
+	 * @return name of the file generated for a scale in the output folder
+	 */
+	static String getFilename(Scale scale, GraphSink.Format format, boolean compressed) {
+		String filename = (scale!=null?scale.getName()+" ":"")+"chords."+format.getExtension()+(compressed?".gz":"");
+		return filename.replace("/", "-");
+	}
+
 	public void generateChords() {
 		try {
-			String filename = (scale!=null?scale.getName()+" ":"")+"chords.graphml";
-			filename = filename.replace("/", "-");
-			String folder = "./chords";
-			File f = new File(folder);
-			f.mkdirs();
-			out = new PrintWriter(
-					new OutputStreamWriter(new FileOutputStream(folder+"/"+filename), StandardCharsets.UTF_8), true);
-		} catch (FileNotFoundException e) {
+			writeFile();
+		} catch (IOException e) {
 			logger.log(Level.SEVERE,"Unexpected error",e);
 		}
-		printHeader();
-		startRecursion();
-		printFooter();
+	}
+
+	/**
+	 * Same as {@link #generateChords()} with the errors thrown.
+	 * The file is written under a temporary name then renamed, so a reader never sees a partial file
+	 *
+	 * @return the file generated or up to date
+	 */
+	File writeFile() throws IOException {
+		String filename = getFilename(scale, format, compressed);
+		File f = outputFolder;
+		f.mkdirs();
+		File file = new File(f, filename);
+		ChordManifest folderManifest = manifest;
+		String hash = null;
+		upToDate = false;
+		if (incremental)
+		{
+			if (folderManifest == null)
+				folderManifest = ChordManifest.get(f);
+			hash = ChordManifest.computeHash(scale, config);
+			if (folderManifest.isUpToDate(filename, hash))
+			{
+				upToDate = true;
+				logger.fine(filename+" is up to date");
+				return file;
+			}
+		}
+		Path temp = new File(f, filename + "." + UUID.randomUUID() + ".tmp").toPath();
+		try {
+			generateChords(FileChannel.open(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE), f);
+			Files.move(temp, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+		// an incomplete file is generated again next time
+		if (incremental && isComplete())
+		{
+			folderManifest.update(filename, hash);
+			if (manifest == null)
+				folderManifest.save();
+		}
+		return file;
+	}
+
+	/**
+	 * Generate the graph in a stream instead of the output folder, the stream is closed at the end
+	 */
+	public void generateChords(OutputStream output) {
+		try {
+			generateChords(Channels.newChannel(output), null);
+		} catch (IOException e) {
+			logger.log(Level.SEVERE,"Unexpected error",e);
+		}
+	}
+
+	/**
+	 * Send the graph to any sink instead of a file, the sink is closed at the end
+	 */
+	public void generateChords(GraphSink sink) {
+		try {
+			writeChords(sink);
+		} catch (IOException e) {
+			logger.log(Level.SEVERE,"Unexpected error",e);
+		}
+	}
+
+	/**
+	 * @param tempFolder where to put the edges in streaming mode, null for the default temporary folder
+	 */
+	void generateChords(WritableByteChannel channel, File tempFolder) throws IOException {
+		channel = new CountingChannel(channel, stats);
+		GraphSink fileSink;
+		try {
+			fileSink = format.create(channel, compressed, streaming, tempFolder);
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+		writeChords(fileSink);
+	}
+
+	void writeChords(GraphSink sink) throws IOException {
+		long start = System.nanoTime();
+		this.sink = sink;
+		edgeCounter = 0;
+		budget = new Budget(config, cancellationToken);
+		stopReason = null;
+		try {
+			sink.start();
+			startRecursion();
+			stopReason = budget.stopReason;
+			if (stopReason != null)
+				logger.warning((scale != null ? scale.getName() : "chromatic") + " generation stopped: " + stopReason);
+			sink.end(stopReason);
+		} finally {
+			this.sink = null;
+			sink.close();
+			stats.addGeneration(System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Count the bytes written in the files, see {@link GeneratorStats#getBytesWritten()}
+	 */
+	private static class CountingChannel implements WritableByteChannel {
+		private final WritableByteChannel channel;
+		private final GeneratorStats stats;
+
+		CountingChannel(WritableByteChannel channel, GeneratorStats stats) {
+			this.channel = channel;
+			this.stats = stats;
+		}
+
+		@Override
+		public int write(ByteBuffer src) throws IOException {
+			int written = channel.write(src);
+			stats.addBytesWritten(written);
+			return written;
+		}
+
+		@Override
+		public boolean isOpen() {
+			return channel.isOpen();
+		}
+
+		@Override
+		public void close() throws IOException {
+			channel.close();
+		}
 	}
 	/*
 	 * Try to found a chord with a valid name given a chord without name
-	 * We invert chord until we found the root chord
+	 * We invert chord until we found the root chord, see InversionIndex
 	 */
 	private Chord getInvertedChord(Chord chord) throws Exception
 	{
-		for (int inversion = 1; inversion < chord.getOffsets().size(); inversion++) {
-			ChordFormula icf = InvertedChord.invertedFormula(chord.getFormula(), inversion);
-			if (icf==null)
-				continue;
-			String iname = Intervals.getChordType(icf);
-			if (!iname.contains("?")) {
-				int baseRootNote = (chord.getOffsets().get(inversion))%12;
-				Chord baseChord = new Chord(icf, baseRootNote);
-//				name = Intervals.getFlatNote(baseRootNote)+ iname +"/" + Intervals.getFlatNote((notes.get(0)+rootNote)%12);
-				Chord ic = InvertedChord.forge(baseChord, chord.getOffsets().size()-inversion);				
-				return ic;
-			}
-		}
-		return null;
+		InversionIndex.Inversion inversion = InversionIndex.get(chord.getFormula());
+		if (inversion==null)
+			return null;
+		int baseRootNote = (chord.getOffsets().get(inversion.getInversion()))%12;
+		Chord baseChord = ChordRegistry.getChord(inversion.getRootFormula(), baseRootNote);
+		return ChordRegistry.getInvertedChord(baseChord, inversion.getRootInversion(), inversion.getInvertedFormula());
 	}
 	private void startRecursion() 
 	{
-		nodeCounter++;
-		String nodeId = "n" + nodeCounter;
-		String rootId = nodeId;
-		emitNode(rootId, scale!=null?scale.getName():"", "#ffffff");
+		Exploration exploration = new DirectExploration();
+		exploration.nodeCounter++;
+		int rootId = exploration.nodeCounter;
+		sink.node(rootId, scale!=null?scale.getName():"", "#ffffff");
+		List<SubtreeTask> tasks = new ArrayList<SubtreeTask>();
+		// notes of the current node, shared by the whole recursion
+		int[] notes = new int[maxNotes + 1];
 		for (int rn=0;rn<12;rn++)
 		{
-			if (scale!=null && !scale.getNotes().contains(rn))
+			if (scale!=null && !scale.contains(rn))
 			{
 				continue;
 			}
-			List<Integer> notes = new ArrayList<Integer>();
-			notes.add(0);
-			String debugMessage = Intervals.getFlatNote(rn);
-			recurseChords(rootId,rn,0,notes,debugMessage);
+			if (batch != null)
+				replayShared(exploration, rootId, rn);
+			else if (parallel)
+				tasks.add(new SubtreeTask(rn, notes, 1, 1, 1, 0));
+			else
+			{
+				long start = System.nanoTime();
+				recurseChords(exploration,rootId,rn,notes,1,1,1,0);
+				stats.add(rn, exploration.counts);
+				stats.addRootTime(rn, System.nanoTime() - start);
+			}
+		}
+		budget.release(exploration);
+		if (parallel)
+		{
+			pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(tasks)));
+			for (SubtreeTask task : tasks)
+			{
+				exploration.replay(task.join(), rootId);
+			}
 		}
 	}
-	private int recurseChords(String parentId, int rootNote,int interval, List<Integer> notes, String debugMessage) {
-		// limit the recursion to 8 notes chords
-		if (notes.size() == 8) {
+	/**
+	 * Identify the chord made by the notes of a node
+	 *
+	 * @param valid result of {@link ChordFormula#isValid(int[], int)} on the notes
+	 * @param nodeChords receive the chord in [0] and an inverted form of it in [1] (both can be null)
+	 * @return the name of the chord, "?" if it has no name
+	 */
+	String identifyChord(int rootNote, int[] notes, int size, boolean valid, Chord[] nodeChords) throws Exception {
+		Chord chord = null;
+		Chord invertedChord = null;
+		String name = "?";
+		if (size == 1)
+			name = "P1";
+		else if (valid) {
+			ChordFormula cf = ChordRegistry.getFormula(notes, size);
+			chord = ChordRegistry.getChord(cf, rootNote);
+			invertedChord = getInvertedChord(chord);
+			name = Intervals.getChordType(cf);
+			// no chord type beyond the dictionary
+			if (cf.getSize() > MAX_NOTES)
+				name = "?";
+			if (name.contains("?") && invertedChord!=null) {
+				chord = invertedChord;
+				invertedChord = null;
+				name = chord.getChordName();
+			}
+			else if (size >= 3 && !name.startsWith("?"))
+			{
+				name = Intervals.getFlatNote(rootNote) + name;
+			}
+		}
+		nodeChords[0] = chord;
+		nodeChords[1] = invertedChord;
+		return name;
+	}
+	/**
+	 * Allocation free equivalent of a name without "?" in {@link #identifyChord},
+	 * as long as the notes are in the indexes
+	 *
+	 * @param intervalMask intervals of the notes (bit n = interval n)
+	 */
+	static boolean isNamed(int[] notes, int size, boolean valid, int intervalMask) throws Exception {
+		return size == 1 || (valid && size <= MAX_NOTES
+				&& (isTyped(notes, size) || InversionIndex.get(notes, size, intervalMask) != null));
+	}
+	/**
+	 * @return true if the intervals are in the dictionary, see {@link Intervals#getChordType(int[], int)}
+	 */
+	private static boolean isTyped(int[] notes, int size) {
+		return size <= MAX_NOTES && !Intervals.getChordType(notes, size).contains("?");
+	}
+	/**
+	 * @return true if the scale contains the root note
+	 */
+	boolean isRootNote(int rootNote) {
+		return (allowedMasks[rootNote] & 1) != 0;
+	}
+	/**
+	 * @param intervalMask intervals of the parent node (bit n = interval n)
+	 * @return true if the child of a node for this interval is in the scale and can lead to a named chord
+	 */
+	boolean isExplored(int rootNote, int intervalMask, int interval) {
+		return (allowedMasks[rootNote] & (1<<interval)) != 0
+				&& (!prune || ReachabilityIndex.isReachable(intervalMask | (1<<interval), allowedMasks[rootNote]));
+	}
+	/**
+	 * Emit a node having at least one chord in its subtree, and register its chords
+	 */
+	private void emitChordNode(Exploration exploration, int nodeId, int parentId, int rootNote, int interval,
+			int[] notes, int size, String name, Chord chord, Chord invertedChord) throws Exception {
+		StringBuilder builder = exploration.label;
+		builder.setLength(0);
+		builder.append(name).append('\n');
+		for (int i = 0; i < size; i++) {
+			if (i > 0)
+				builder.append(',');
+			builder.append(Intervals.getFlatNote((rootNote+notes[i]) % 12));
+		}
+		String label = builder.toString();
+		if (name.contains("?"))
+			exploration.emit(nodeId, parentId, interval, label, "#ffffff", notes, size);
+		else if (size < 3)
+			exploration.emit(nodeId, parentId, interval, label, "#ffcc00", notes, size);
+		else
+		{
+			if (chord==null)
+			{
+				throw new Exception("Impossible");
+			}
+			if (invertedChord!=null)
+			{
+				exploration.addChord(invertedChord);
+			}
+			exploration.addChord(chord);
+			exploration.counts[GeneratorStats.CHORDS_FOUND] += invertedChord!=null ? 2 : 1;
+			exploration.emit(nodeId, parentId, interval, label, "#ff6600", notes, size);
+		}
+	}
+	/**
+	 * Append a subtree recorded for another root note, as if it was explored right now from rootNote.
+	 * Since chords are identified by their intervals, the nodes are the same, only their names change
+	 */
+	void replayTransposed(Exploration exploration, RecordedExploration template, int parentId, int rootNote) throws Exception {
+		int base = exploration.nodeCounter;
+		Chord[] nodeChords = new Chord[2];
+		for (int n = 0; n < template.size; n++) {
+			int[] notes = template.notes[n];
+			int parent = template.parentIds[n];
+			boolean valid = notes.length > 1 && ChordFormula.isValid(notes, notes.length);
+			String name = identifyChord(rootNote, notes, notes.length, valid, nodeChords);
+			emitChordNode(exploration, base + template.nodeIds[n], parent == 0 ? parentId : base + parent, rootNote,
+					template.intervals[n], notes, notes.length, name, nodeChords[0], nodeChords[1]);
+		}
+		exploration.nodeCounter += template.nodeCounter;
+	}
+	private void replayShared(Exploration exploration, int rootId, int rootNote) {
+		long start = System.nanoTime();
+		int scaleMask = scale != null ? scale.getBitmask() : 0xFFF;
+		// notes of the scale relative to the root note
+		int relativeMask = ((scaleMask >>> rootNote) | (scaleMask << (12 - rootNote))) & 0xFFF;
+		try {
+			replayTransposed(exploration, batch.getSubtree(relativeMask), rootId, rootNote);
+		} catch (Exception e) {
+			logger.log(Level.SEVERE,"Unexpected error",e);
+		}
+		stats.add(rootNote, exploration.counts);
+		stats.addRootTime(rootNote, System.nanoTime() - start);
+	}
+	/**
+	 * Explore the subtree of a single root note, keeping the notes of each node
+	 * so it can be replayed for other root notes, see {@link #replayTransposed}
+	 */
+	RecordedExploration exploreRoot(int rootNote) {
+		RecordedExploration subtree = new RecordedExploration(true);
+		subtree.nbChordFound = recurseChords(subtree, 0, rootNote, new int[maxNotes + 1], 1, 1, 1, 0);
+		stats.add(rootNote, subtree.counts);
+		return subtree;
+	}
+	/**
+	 * Path of a node for the logs: the root note followed by the intervals
+	 */
+	private static String debugMessage(int rootNote, int[] notes, int size) {
+		StringBuilder message = new StringBuilder(Intervals.getFlatNote(rootNote));
+		for (int i = 1; i < size; i++) {
+			message.append(',').append(Intervals.getInterval(notes[i]));
+		}
+		return message.toString();
+	}
+	/**
+	 * The notes of the node are the first "size" entries of a stack shared by the whole recursion,
+	 * children push their interval on top of it, so nothing is allocated for the nodes which are not emitted.
+	 * mask and maxSpread are tracked incrementally along the recursion so the validity of the chord
+	 * can be checked without allocation, see {@link ChordFormula#isValid(int, int, int)}
+	 * intervalMask contains the notes without octave reduction, it is used to prune dead subtrees
+	 */
+	private int recurseChords(Exploration exploration, int parentId, int rootNote, int[] notes, int size, int intervalMask, int mask, int maxSpread) {
+		// limit the recursion to 7 notes chords by default
+		if (size > maxNotes) {
+			return 0;
+		}
+		if (exploration.nodesGranted == 0 && (exploration.nodesGranted = budget.acquire()) == 0) {
+			// stopped, the nodes found so far are still emitted by their parents
 			return 0;
 		}
+		exploration.nodesGranted--;
 		
-		// chord identification
-		Chord chord = null;
-		Chord invertedChord = null;
 		try {
-			String name = "?";
-			if (notes.size() == 1)
-				name = "P1";
-			else if (ChordFormula.isValid(notes.toArray(new Integer[0]))) {
-				ChordFormula cf = new ChordFormula(notes.toArray(new Integer[0]));
-				chord = new Chord(cf, rootNote);
-				invertedChord = getInvertedChord(chord);
-				name = Intervals.getChordType(cf);
-				if (name.contains("?") && invertedChord!=null) {					
-					chord = invertedChord;
-					invertedChord = null;
-					name = chord.getChordName();
-				}
-				else if (notes.size() >= 3 && !name.startsWith("?"))
-				{
-					name = Intervals.getFlatNote(rootNote) + name;
-				}
-			}
-						
-			name += "\n";
-			for (int i = 0; i < notes.size(); i++) {
-				if (i > 0)
-					name += ",";
-				name += Intervals.getFlatNote((rootNote+notes.get(i)) % 12);
+			int interval = notes[size - 1];
+			// chord identification, the chords themselves are only built if the node is emitted
+			boolean valid = size > 1 && ChordFormula.isValid(mask, size, maxSpread);
+			// same as isNamed, the inversion lookups are counted
+			long[] counts = exploration.counts;
+			boolean named = size == 1 || (valid && isTyped(notes, size));
+			// no chord type beyond the dictionary, for the inversions too
+			if (!named && valid && size <= MAX_NOTES)
+			{
+				counts[GeneratorStats.INVERSION_LOOKUPS]++;
+				named = InversionIndex.get(notes, size, intervalMask) != null;
 			}
+			counts[named ? GeneratorStats.NAMED_NODES : GeneratorStats.UNNAMED_NODES]++;
+
+			if (logger.isLoggable(Level.FINE))
+				logger.fine(debugMessage(rootNote, notes, size));
 			
-			logger.fine(debugMessage);
-			
-			nodeCounter++;
-			String nodeId = "n" + nodeCounter;
+			exploration.nodeCounter++;
+			counts[GeneratorStats.NODES_VISITED]++;
+			int nodeId = exploration.nodeCounter;
 
 			//
 			// depth first 
 			//
 			int nbChordFound = 0;
-			for (int i = interval+1; i <= Intervals.getInterval("M13"); i++) {
-				if (i-interval>6) // we go up to a phrygian/lydian triad which have the biggest gap between notes
+			boolean split = parallel && size < PARALLEL_SPLIT_NOTES;
+			List<SubtreeTask> tasks = split ? new ArrayList<SubtreeTask>() : null;
+			for (int i = interval+1; i <= maxInterval; i++) {
+				if (i-interval>maxGap) // we go up to a phrygian/lydian triad which have the biggest gap between notes
+				{
+					counts[GeneratorStats.PRUNED_BY_GAP] += maxInterval - i + 1;
+					break;
+				}
+				if ((allowedMasks[rootNote] & (1<<i)) == 0)
+				{
+					counts[GeneratorStats.PRUNED_BY_SCALE]++;
 					continue;
-				if (scale!=null && !scale.getNotes().contains((rootNote+i)%12))
+				}
+				if (prune && !ReachabilityIndex.isReachable(intervalMask | (1<<i), allowedMasks[rootNote]))
+				{
+					counts[GeneratorStats.PRUNED_BY_REACHABILITY]++;
+					// nothing to emit in this subtree, but its nodes are counted to keep the same node ids
+					exploration.nodeCounter += (int) subtreeSizes[rootNote][i][size+1];
 					continue;
-				String _name = "," + Intervals.getInterval(i);
-				List<Integer> newChord = new ArrayList<Integer>();
-				newChord.addAll(notes);
-				newChord.add(i);
-				nbChordFound += recurseChords(nodeId, rootNote,i, newChord, debugMessage +_name);
+				}
+				notes[size] = i;
+				if (split)
+					tasks.add(new SubtreeTask(rootNote, notes, size+1, intervalMask | (1<<i), mask | (1<<(i%12)), Math.max(maxSpread, i-interval)));
+				else
+					nbChordFound += recurseChords(exploration, nodeId, rootNote, notes, size+1, intervalMask | (1<<i), mask | (1<<(i%12)), Math.max(maxSpread, i-interval));
+			}
+			if (split)
+			{
+				// the children tasks take their nodes from the budget
+				budget.release(exploration);
+				ForkJoinTask.invokeAll(tasks);
+				for (SubtreeTask task : tasks)
+				{
+					RecordedExploration subtree = task.join();
+					nbChordFound += subtree.nbChordFound;
+					exploration.replay(subtree, nodeId);
+				}
 			}
 			//
 			// Generate graphml file after
 			//
-			if (!name.contains("?")) {
+			if (named) {
 				nbChordFound++;
 			}
 			if (nbChordFound > 0) {
-				if (parentId != null) {
-					edges.add(new Edge("e" + edges.size() + 1, Intervals.getInterval(interval), parentId, nodeId,
-							"#000000", false));
-				}
-				if (name.contains("?"))
-					emitNode(nodeId, name, "#ffffff");
-				else if (notes.size() < 3)
-					emitNode(nodeId, name, "#ffcc00");
-				else
-				{
-					if (invertedChord!=null && !chords.containsKey(invertedChord.getChordName()))
-					{
-						chords.put(invertedChord.getChordName(),invertedChord);
-					}
-					if (chord!=null && !chords.containsKey(chord.getChordName()))
-					{
-						chords.put(chord.getChordName(), chord);
-					}
-					else if (chord==null)
-					{
-						throw new Exception("Impossible");
-					}
-					emitNode(nodeId, name, "#ff6600");
-				}
+				// identifyChord looks for an inversion of every valid chord
+				if (valid)
+					counts[GeneratorStats.INVERSION_LOOKUPS]++;
+				Chord[] nodeChords = new Chord[2];
+				String name = identifyChord(rootNote, notes, size, valid, nodeChords);
+				emitChordNode(exploration, nodeId, parentId, rootNote, interval, notes, size, name,
+						nodeChords[0], nodeChords[1]);
 			}
 			return nbChordFound;
 		} catch (Exception e) {
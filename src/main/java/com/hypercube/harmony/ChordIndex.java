@@ -0,0 +1,129 @@
+package com.hypercube.harmony;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Chord recognition: from the notes which are sounding to the chords they make
+ *
+ * Every chord found by a chromatic {@link ChordGenerator} is stored by pitch classes and bass note,
+ * so a lookup is a single array access. Root positions come first, then inverted chords.
+ *
+ * The index is built once and never modified, it can be used by concurrent readers.
+ * The chords are shared: they must not be modified by the callers.
+ *
+ * @author hypercube software
+ *
+ */
+public class ChordIndex {
+	/**
+	 * Chords by pitch classes (12 bits mask, bit n = note n modulo 12) and bass note (0-11)
+	 */
+	private static class Holder {
+		static final List<Chord>[] chords = build();
+
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		private static List<Chord>[] build() {
+			List<Chord>[] result = new List[4096 * 12];
+			Set<String> names = new HashSet<String>();
+			new ChordGenerator(null).streamChords().forEach(chord -> {
+				int key = key(getMask(chord), chord.getOffsets().get(0) % 12);
+				// the name is computed now, so the chord is not modified by the readers
+				if (names.add(key + " " + chord.getChordName())) {
+					if (result[key] == null)
+						result[key] = new ArrayList<Chord>();
+					result[key].add(chord);
+				}
+			});
+			for (int key = 0; key < result.length; key++) {
+				if (result[key] != null) {
+					List<Chord> sorted = new ArrayList<Chord>(result[key]);
+					// stable sort: the order of the recursion is kept for the chords of the same kind
+					sorted.sort((a, b) -> Boolean.compare(a instanceof InvertedChord, b instanceof InvertedChord));
+					result[key] = Collections.unmodifiableList(sorted);
+				}
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * Build the index now instead of during the first lookup
+	 */
+	static void load() {
+		if (Holder.chords == null)
+			throw new IllegalStateException("Chord index not built");
+	}
+
+	private static int key(int mask, int bass) {
+		return mask * 12 + bass;
+	}
+
+	private static int getMask(Chord chord) {
+		int mask = 0;
+		for (int note : chord.getOffsets()) {
+			mask |= 1 << (note % 12);
+		}
+		return mask;
+	}
+
+	/**
+	 * @param mask pitch classes which are sounding (bit n = note n modulo 12)
+	 * @param bass lowest note, it must be in the mask
+	 * @return the chords made by those notes, an empty list if there is none
+	 */
+	public static List<Chord> getChords(int mask, int bass) {
+		if (mask <= 0 || mask >= 4096 || bass < 0)
+			return Collections.emptyList();
+		List<Chord> chords = Holder.chords[key(mask, bass % 12)];
+		return chords != null ? chords : Collections.<Chord>emptyList();
+	}
+
+	/**
+	 * @param notes notes which are sounding, in any octave and any order (MIDI notes for instance)
+	 * @return the chords made by those notes, the bass is the lowest note
+	 */
+	public static List<Chord> getChords(int... notes) {
+		if (notes.length == 0)
+			return Collections.emptyList();
+		int mask = 0;
+		int bass = Integer.MAX_VALUE;
+		for (int note : notes) {
+			mask |= 1 << (note % 12);
+			bass = Math.min(bass, note);
+		}
+		return getChords(mask, bass % 12);
+	}
+
+	/**
+	 * Names of the chords made by those notes, spelled with the note names of a scale when it contains them
+	 * (Ab7 instead of G#7 in C minor)
+	 *
+	 * @param scale null to get the names of {@link Chord#getChordName()}
+	 */
+	public static List<String> getChordNames(int mask, int bass, Scale scale) {
+		List<Chord> chords = getChords(mask, bass);
+		List<String> names = new ArrayList<String>(chords.size());
+		for (Chord chord : chords) {
+			names.add(scale != null ? getChordName(chord, scale) : chord.getChordName());
+		}
+		return names;
+	}
+
+	private static String getChordName(Chord chord, Scale scale) {
+		if (chord instanceof InvertedChord) {
+			Chord baseChord = ((InvertedChord) chord).getBaseChord();
+			return getNoteName(baseChord.getBaseNote(), scale) + baseChord.getType() + "/"
+					+ getNoteName(chord.getOffsets().get(0), scale);
+		}
+		return getNoteName(chord.getBaseNote(), scale) + chord.getType();
+	}
+
+	private static String getNoteName(int note, Scale scale) {
+		String name = scale.getNoteName(note);
+		return name != null ? name : Intervals.getSharpNote(note);
+	}
+}
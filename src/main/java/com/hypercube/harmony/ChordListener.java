@@ -0,0 +1,22 @@
+package com.hypercube.harmony;
+
+import java.util.List;
+
+/**
+ * Receive the chords recognized by a {@link ChordReceiver}
+ *
+ * @author hypercube software
+ *
+ */
+public interface ChordListener {
+	/**
+	 * Called on the thread sending the MIDI messages, each time the sounding notes make a different chord.
+	 * It must return quickly.
+	 *
+	 * @param chords chords made by the notes (see {@link ChordIndex}), empty if they are unknown or if no note is held
+	 * @param mask pitch classes of the held notes (bit n = note n modulo 12)
+	 * @param bass pitch class of the lowest held note, -1 if no note is held
+	 * @param timeStamp time stamp of the MIDI message in microseconds, -1 if unknown
+	 */
+	void chordChanged(List<Chord> chords, int mask, int bass, long timeStamp);
+}
@@ -0,0 +1,183 @@
+package com.hypercube.harmony;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+/**
+ * Manifest of the files generated in a folder, used by the incremental generation
+ *
+ * Each file is recorded with the hash of everything its content depends on (see {@link #computeHash(Scale)}),
+ * its size and its modification time. A file is up to date when all of them still match, so it is not generated again.
+ *
+ * The manifest is a text file "chords.manifest" in the folder, one line per file: hash, size, modification time, file name
+ * The generations running in the same folder share the same instance, see {@link #get(File)}
+ *
+ * @author hypercube software
+ *
+ */
+public class ChordManifest {
+	static Logger logger = Logger.getLogger(ChordManifest.class.getName());
+	static final String FILENAME = "chords.manifest";
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+	/**
+	 * Manifests loaded by {@link #get(File)}, keyed by canonical folder
+	 */
+	private static final ConcurrentHashMap<File, ChordManifest> manifests = new ConcurrentHashMap<File, ChordManifest>();
+
+	private final File folder;
+	private final Map<String, Entry> entries = new TreeMap<String, Entry>();
+	private boolean modified;
+
+	private static class Entry {
+		private final String hash;
+		private final long size;
+		private final long lastModified;
+
+		private Entry(String hash, long size, long lastModified) {
+			this.hash = hash;
+			this.size = size;
+			this.lastModified = lastModified;
+		}
+	}
+
+	/**
+	 * @return the manifest of a folder shared by all the generations of the JVM, loaded on first use
+	 */
+	public static ChordManifest get(File folder) throws IOException {
+		File key = folder.getCanonicalFile();
+		ChordManifest manifest = manifests.get(key);
+		if (manifest == null) {
+			ChordManifest loaded = load(key);
+			manifest = manifests.putIfAbsent(key, loaded);
+			if (manifest == null)
+				manifest = loaded;
+		}
+		return manifest;
+	}
+
+	/**
+	 * Read the manifest of a folder, empty if there is none yet
+	 * Two instances of the same folder overwrite each other entries when they are saved, see {@link #get(File)}
+	 */
+	public static ChordManifest load(File folder) throws IOException {
+		ChordManifest manifest = new ChordManifest(folder);
+		Path file = new File(folder, FILENAME).toPath();
+		if (Files.exists(file)) {
+			try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+				String line;
+				while ((line = in.readLine()) != null) {
+					String[] fields = line.split("\t", 4);
+					// the lines without modification time come from a previous version, their files are generated again
+					if (fields.length == 4)
+						manifest.entries.put(fields[3], new Entry(fields[0], Long.parseLong(fields[1]), Long.parseLong(fields[2])));
+				}
+			}
+		}
+		return manifest;
+	}
+
+	private ChordManifest(File folder) {
+		this.folder = folder;
+	}
+
+	/**
+	 * Same as {@link #computeHash(Scale, GeneratorConfig)} with the default limits
+	 */
+	public static String computeHash(Scale scale) {
+		return computeHash(scale, new GeneratorConfig());
+	}
+
+	/**
+	 * SHA-256 of the inputs of a generation: scale name, root note, formula, limits of the generator
+	 * and version of the chord dictionary, null for all the keys.
+	 * The budget is not part of it, an incomplete generation is never recorded
+	 */
+	public static String computeHash(Scale scale, GeneratorConfig config) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			StringBuilder inputs = new StringBuilder();
+			inputs.append("dictionary ").append(Intervals.CHORD_DICTIONARY_VERSION);
+			inputs.append("\nlimits ").append(config.getMaxNotes()).append(' ').append(config.getMaxInterval()).append(' ')
+					.append(config.getMaxGap());
+			if (scale != null) {
+				inputs.append("\nscale ").append(scale.getName());
+				inputs.append("\nroot ").append(scale.getRootNote());
+				// the formula string is null when the scale is built from offsets
+				// and there is no formula at all for a scale built from its name
+				if (scale.getFormula() != null)
+					inputs.append("\nformula ").append(scale.getFormula().getOffets());
+			}
+			byte[] hash = digest.digest(inputs.toString().getBytes(StandardCharsets.UTF_8));
+			char[] hex = new char[hash.length * 2];
+			for (int i = 0; i < hash.length; i++) {
+				hex[i * 2] = HEX[(hash[i] >> 4) & 0xF];
+				hex[i * 2 + 1] = HEX[hash[i] & 0xF];
+			}
+			return new String(hex);
+		} catch (NoSuchAlgorithmException e) {
+			// SHA-256 is available on every Java platform
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * @return true if the file was generated from the same inputs and was not modified since
+	 */
+	public synchronized boolean isUpToDate(String filename, String hash) {
+		Entry entry = entries.get(filename);
+		if (entry == null || !entry.hash.equals(hash))
+			return false;
+		File file = new File(folder, filename);
+		return file.length() == entry.size && file.lastModified() == entry.lastModified && file.isFile();
+	}
+
+	/**
+	 * Record a file which has just been generated
+	 */
+	public synchronized void update(String filename, String hash) {
+		File file = new File(folder, filename);
+		entries.put(filename, new Entry(hash, file.length(), file.lastModified()));
+		modified = true;
+	}
+
+	/**
+	 * Write the manifest if it changed, through a temporary file so an interrupted run never leaves a partial manifest
+	 */
+	public synchronized void save() throws IOException {
+		if (!modified)
+			return;
+		Path file = new File(folder, FILENAME).toPath();
+		Path temp = new File(folder, FILENAME + "." + UUID.randomUUID() + ".tmp").toPath();
+		try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(temp, StandardCharsets.UTF_8))) {
+			for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+				out.print(entry.getValue().hash);
+				out.print('\t');
+				out.print(entry.getValue().size);
+				out.print('\t');
+				out.print(entry.getValue().lastModified);
+				out.print('\t');
+				out.print(entry.getKey());
+				out.print('\n');
+			}
+		}
+		try {
+			Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+		modified = false;
+	}
+}
@@ -0,0 +1,193 @@
+package com.hypercube.harmony;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.ShortMessage;
+
+/**
+ * Recognize the chords played on a MIDI input
+ *
+ * The held notes are kept in a 128 bits mask with a counter per channel and note: a note off only releases
+ * a note held on its own channel, and a note held on several channels sounds until the last one releases it.
+ * A note on or a note off does not allocate anything. When the pitch classes or the bass change,
+ * the chord is resolved with a single lookup in the {@link ChordIndex} and published to the listeners.
+ *
+ * The percussion channel is ignored.
+ *
+ * @author hypercube software
+ *
+ */
+public class ChordReceiver implements Receiver {
+	private static final int PERCUSSION_CHANNEL = 9;
+	private static final int ALL_SOUND_OFF = 120;
+	private static final int ALL_NOTES_OFF = 123;
+	private static final int NB_CHANNELS = 16;
+	private static final int NB_NOTES = 128;
+
+	/**
+	 * Copied on write, so the listeners can be called without allocation
+	 */
+	private volatile ChordListener[] listeners = new ChordListener[0];
+	/**
+	 * Held notes: number of note on without note off, by MIDI channel and note (channel*128+note)
+	 */
+	private final int[] noteCounts = new int[NB_CHANNELS * NB_NOTES];
+	/**
+	 * Held notes of all the channels, by MIDI note
+	 */
+	private final int[] heldCounts = new int[NB_NOTES];
+	/**
+	 * Held notes by pitch class
+	 */
+	private final int[] pitchClassCounts = new int[12];
+	/**
+	 * Held notes, bit n of notes[n/64] for the MIDI note n
+	 */
+	private final long[] notes = new long[2];
+	private int mask;
+	/**
+	 * Last published state
+	 */
+	private int publishedMask;
+	private int bass = -1;
+	private List<Chord> chords = Collections.emptyList();
+	private boolean closed;
+
+	public ChordReceiver() {
+		// the index is built now rather than on the first note
+		ChordIndex.load();
+	}
+
+	public synchronized void addListener(ChordListener listener) {
+		ChordListener[] newListeners = Arrays.copyOf(listeners, listeners.length + 1);
+		newListeners[listeners.length] = listener;
+		listeners = newListeners;
+	}
+
+	public synchronized void removeListener(ChordListener listener) {
+		List<ChordListener> newListeners = new ArrayList<ChordListener>(Arrays.asList(listeners));
+		newListeners.remove(listener);
+		listeners = newListeners.toArray(new ChordListener[0]);
+	}
+
+	/**
+	 * @return pitch classes of the held notes (bit n = note n modulo 12)
+	 */
+	public synchronized int getMask() {
+		return publishedMask;
+	}
+
+	/**
+	 * @return pitch class of the lowest held note, -1 if no note is held
+	 */
+	public synchronized int getBass() {
+		return bass;
+	}
+
+	/**
+	 * @return chords made by the held notes
+	 */
+	public synchronized List<Chord> getChords() {
+		return chords;
+	}
+
+	@Override
+	public synchronized void send(MidiMessage message, long timeStamp) {
+		if (closed || !(message instanceof ShortMessage))
+			return;
+		ShortMessage shortMessage = (ShortMessage) message;
+		int command = shortMessage.getCommand();
+		if (command != ShortMessage.NOTE_ON && command != ShortMessage.NOTE_OFF && command != ShortMessage.CONTROL_CHANGE)
+			return;
+		int channel = shortMessage.getChannel();
+		if (channel == PERCUSSION_CHANNEL)
+			return;
+		int note = shortMessage.getData1();
+		if (command == ShortMessage.NOTE_ON && shortMessage.getData2() > 0)
+			noteOn(channel, note);
+		else if (command != ShortMessage.CONTROL_CHANGE)
+			noteOff(channel, note);
+		else if (note == ALL_NOTES_OFF || note == ALL_SOUND_OFF)
+			reset(channel);
+		else
+			return;
+		update(timeStamp);
+	}
+
+	private void noteOn(int channel, int note) {
+		noteCounts[channel * NB_NOTES + note]++;
+		if (heldCounts[note]++ == 0) {
+			notes[note >> 6] |= 1L << note;
+			if (pitchClassCounts[note % 12]++ == 0)
+				mask |= 1 << (note % 12);
+		}
+	}
+
+	private void noteOff(int channel, int note) {
+		if (noteCounts[channel * NB_NOTES + note] == 0)
+			return;
+		noteCounts[channel * NB_NOTES + note]--;
+		release(note, 1);
+	}
+
+	/**
+	 * Release the notes held on a channel
+	 */
+	private void reset(int channel) {
+		for (int note = 0; note < NB_NOTES; note++) {
+			int count = noteCounts[channel * NB_NOTES + note];
+			if (count > 0) {
+				noteCounts[channel * NB_NOTES + note] = 0;
+				release(note, count);
+			}
+		}
+	}
+
+	private void release(int note, int count) {
+		heldCounts[note] -= count;
+		if (heldCounts[note] == 0) {
+			notes[note >> 6] &= ~(1L << note);
+			if (--pitchClassCounts[note % 12] == 0)
+				mask &= ~(1 << (note % 12));
+		}
+	}
+
+	private void reset() {
+		Arrays.fill(noteCounts, 0);
+		Arrays.fill(heldCounts, 0);
+		Arrays.fill(pitchClassCounts, 0);
+		notes[0] = 0;
+		notes[1] = 0;
+		mask = 0;
+	}
+
+	/**
+	 * Publish the chord if the pitch classes or the bass changed
+	 */
+	private void update(long timeStamp) {
+		int newBass = -1;
+		if (notes[0] != 0)
+			newBass = Long.numberOfTrailingZeros(notes[0]) % 12;
+		else if (notes[1] != 0)
+			newBass = (64 + Long.numberOfTrailingZeros(notes[1])) % 12;
+		if (newBass == bass && mask == publishedMask)
+			return;
+		bass = newBass;
+		publishedMask = mask;
+		chords = bass != -1 ? ChordIndex.getChords(mask, bass) : Collections.<Chord>emptyList();
+		for (ChordListener listener : listeners) {
+			listener.chordChanged(chords, mask, bass, timeStamp);
+		}
+	}
+
+	@Override
+	public synchronized void close() {
+		closed = true;
+		reset();
+	}
+}
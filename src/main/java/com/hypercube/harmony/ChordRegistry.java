@@ -0,0 +1,127 @@
+package com.hypercube.harmony;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Canonical instances of the formulas and the chords, shared by all the generations
+ *
+ * A formula is identified by its intervals, a chord by its formula and its root note (0-11),
+ * an inverted chord by its base chord and its inversion: the same key always gives the same instance,
+ * so they can be compared by reference. Names and notes are computed when an instance is created.
+ *
+ * The universe is bounded (interval sets x 12 roots x inversions), the registry keeps all it has created.
+ * Chords of the registry have no scale and can not be modified, see {@link Chord#setScale(Scale)}:
+ * {@link Chord#withScale(Scale)} gives a copy named after a scale.
+ * Formulas with an interval above 63 are not registered, they are built on each call.
+ *
+ * @author hypercube software
+ *
+ */
+public class ChordRegistry {
+	/**
+	 * Keys are interval masks, see {@link ChordFormula#getIntervalMask()}
+	 */
+	private static final ConcurrentHashMap<Long, ChordFormula> formulas = new ConcurrentHashMap<Long, ChordFormula>();
+
+	/**
+	 * Same as {@link ChordFormula#ChordFormula(int[], int)}
+	 */
+	public static ChordFormula getFormula(int[] offsets, int size) throws Exception {
+		long key = intervalMask(offsets, size);
+		if (key == 0)
+			return new ChordFormula(offsets, size);
+		ChordFormula formula = formulas.get(key);
+		if (formula == null)
+			formula = register(key, new ChordFormula(offsets, size));
+		return formula;
+	}
+
+	/**
+	 * @return the canonical instance having the same intervals
+	 */
+	public static ChordFormula intern(ChordFormula formula) {
+		if (formula.chords != null)
+			return formula;
+		long key = formula.getIntervalMask();
+		if (key == 0)
+			return formula;
+		ChordFormula canonical = formulas.get(key);
+		if (canonical == null)
+			canonical = register(key, new ChordFormula(formula));
+		return canonical;
+	}
+
+	private static ChordFormula register(long key, ChordFormula formula) {
+		formula.chords = new AtomicReferenceArray<Chord>(12);
+		ChordFormula previous = formulas.putIfAbsent(key, formula);
+		return previous != null ? previous : formula;
+	}
+
+	/**
+	 * @return the intervals from the first note (bit n = interval n), 0 if they can not be registered
+	 */
+	private static long intervalMask(int[] offsets, int size) {
+		long mask = 0;
+		for (int i = 0; i < size; i++) {
+			int interval = offsets[i] - offsets[0];
+			if (interval < 0 || interval >= 64)
+				return 0;
+			mask |= 1L << interval;
+		}
+		// duplicate notes are rejected by the formula
+		return Long.bitCount(mask) == size ? mask : 0;
+	}
+
+	/**
+	 * Same as {@link Chord#Chord(ChordFormula, int)}
+	 */
+	public static Chord getChord(ChordFormula formula, int rootNote) {
+		formula = intern(formula);
+		if (formula.chords == null || rootNote < 0 || rootNote >= 12)
+			return new Chord(formula, rootNote);
+		Chord chord = formula.chords.get(rootNote);
+		if (chord == null) {
+			chord = new Chord(formula, rootNote);
+			chord.intern(formula.getSize());
+			if (!formula.chords.compareAndSet(rootNote, null, chord))
+				chord = formula.chords.get(rootNote);
+		}
+		return chord;
+	}
+
+	/**
+	 * Same as {@link InvertedChord#forge(Chord, int)}
+	 */
+	public static InvertedChord getInvertedChord(Chord baseChord, int inversion) throws Exception {
+		if (baseChord instanceof InvertedChord)
+			throw new Exception("Cannot invert an inverted chord");
+		return getInvertedChord(baseChord, inversion, InversionIndex.invert(baseChord.getFormula(), inversion));
+	}
+
+	/**
+	 * Same as {@link InvertedChord#forge(Chord, int, ChordFormula)}
+	 */
+	static InvertedChord getInvertedChord(Chord baseChord, int inversion, ChordFormula invertedFormula)
+			throws Exception {
+		if (invertedFormula == null)
+			return null;
+		if (baseChord.inversions == null)
+			return InvertedChord.forge(baseChord, inversion, invertedFormula);
+		InvertedChord chord = baseChord.inversions.get(inversion);
+		if (chord == null) {
+			chord = InvertedChord.forge(baseChord, inversion, intern(invertedFormula));
+			chord.intern(0);
+			if (!baseChord.inversions.compareAndSet(inversion, null, chord))
+				chord = baseChord.inversions.get(inversion);
+		}
+		return chord;
+	}
+
+	/**
+	 * @return number of formulas registered
+	 */
+	public static int getNbFormulas() {
+		return formulas.size();
+	}
+}
@@ -0,0 +1,549 @@
+package com.hypercube.harmony;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Local HTTP server answering chord queries in JSON, so tools outside the JVM do not start a JVM per query
+ *
+ * Endpoints (GET):
+ * - /chords?root=D&formula=T-T-S-T-T-T-S : chords of a scale, all the keys without root and formula
+ * - /name?notes=E,G,C : name of a set of notes, from the lowest to the highest (names or semitones from C)
+ * - /inversions?chord=Cmaj7 or ?notes=C,E,G,B : root position and inversions of a chord
+ * - /nearest?chord=Cmaj7&k=5 : closest chords of the scale (root and formula) by {@link Chord#distance(Chord)}
+ *
+ * Responses are kept in a LRU cache keyed by the normalized query: "notes=E,G,C" and "notes=4,7,12" are the same.
+ * The server only listens on the loopback interface, see {@link ChordServerLoadTest} to measure it.
+ *
+ * @author hypercube software
+ *
+ */
+public class ChordServer {
+	static Logger logger = Logger.getLogger(ChordServer.class.getName());
+	public static final int DEFAULT_PORT = 8765;
+	public static final int DEFAULT_CACHE_SIZE = 4096;
+	private static final int DEFAULT_NEAREST = 10;
+	/**
+	 * Chords of the scales recently queried
+	 */
+	private static final int CATALOG_CACHE_SIZE = 32;
+
+	private final HttpServer server;
+	private final ExecutorService executor;
+	private final LruCache<String, byte[]> responses;
+	private final LruCache<String, Catalog> catalogs = new LruCache<String, Catalog>(CATALOG_CACHE_SIZE);
+	/**
+	 * Only used to name the chords, see {@link ChordGenerator#identifyChord}
+	 */
+	private final ChordGenerator namer = new ChordGenerator(null);
+	private final AtomicLong cacheHits = new AtomicLong();
+	private final AtomicLong cacheMisses = new AtomicLong();
+
+	/**
+	 * Least recently used entries are removed first
+	 */
+	private static class LruCache<K, V> {
+		private final LinkedHashMap<K, V> map;
+
+		LruCache(int capacity) {
+			map = new LinkedHashMap<K, V>(16, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+					return size() > capacity;
+				}
+			};
+		}
+
+		synchronized V get(K key) {
+			return map.get(key);
+		}
+
+		synchronized void put(K key, V value) {
+			map.put(key, value);
+		}
+
+		synchronized int size() {
+			return map.size();
+		}
+	}
+
+	/**
+	 * Chords of a scale, by name
+	 */
+	private static class Catalog {
+		private final Scale scale;
+		private final List<Chord> chords;
+		private final Map<String, Chord> chordsByName = new HashMap<String, Chord>();
+
+		Catalog(Scale scale) {
+			this.scale = scale;
+			chords = new ChordGenerator(scale).computeChords();
+			chords.sort(Comparator.comparing(Chord::getChordName));
+			for (Chord chord : chords) {
+				chordsByName.put(chord.getChordName(), chord);
+			}
+		}
+	}
+
+	/**
+	 * A query with a wrong parameter, answered with a status 400 or 404
+	 */
+	private static class QueryException extends Exception {
+		private static final long serialVersionUID = 1L;
+		private final int status;
+
+		QueryException(int status, String message) {
+			super(message);
+			this.status = status;
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		ChordGenerator.initLogs();
+		int port = DEFAULT_PORT;
+		int cacheSize = DEFAULT_CACHE_SIZE;
+		for (String arg : args)
+		{
+			if (arg.startsWith("--port="))
+				port = Integer.parseInt(arg.substring("--port=".length()));
+			else if (arg.startsWith("--cache="))
+				cacheSize = Integer.parseInt(arg.substring("--cache=".length()));
+		}
+		ChordServer server = new ChordServer(port, cacheSize);
+		server.start();
+		logger.info("Chord server listening on http://localhost:" + server.getPort());
+	}
+
+	/**
+	 * @param port 0 for any free port, see {@link #getPort()}
+	 * @param cacheSize number of responses kept
+	 */
+	public ChordServer(int port, int cacheSize) throws IOException {
+		// small responses would wait for the delayed ACK of the client (Nagle), about 40ms each
+		if (System.getProperty("sun.net.httpserver.nodelay") == null)
+			System.setProperty("sun.net.httpserver.nodelay", "true");
+		responses = new LruCache<String, byte[]>(cacheSize);
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), runnable -> {
+			Thread thread = new Thread(runnable, "chord-server");
+			thread.setDaemon(true);
+			return thread;
+		});
+		server.setExecutor(executor);
+		server.createContext("/chords", handler(listChords()));
+		server.createContext("/name", handler(nameChord()));
+		server.createContext("/inversions", handler(listInversions()));
+		server.createContext("/nearest", handler(listNearest()));
+	}
+
+	public void start() {
+		server.start();
+	}
+
+	public void stop() {
+		server.stop(0);
+		executor.shutdown();
+	}
+
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	public long getCacheHits() {
+		return cacheHits.get();
+	}
+
+	public long getCacheMisses() {
+		return cacheMisses.get();
+	}
+
+	/**
+	 * What an endpoint does: normalize the query into a cache key, then compute the response on a cache miss
+	 */
+	private interface Endpoint {
+		String normalize(Map<String, String> parameters) throws QueryException;
+
+		String answer(Map<String, String> parameters) throws Exception;
+	}
+
+	private HttpHandler handler(Endpoint endpoint) {
+		return exchange -> {
+			try {
+				if (!exchange.getRequestMethod().equals("GET")) {
+					send(exchange, 405, error("Only GET is supported"));
+					return;
+				}
+				Map<String, String> parameters = parseQuery(exchange.getRequestURI().getRawQuery());
+				String key = exchange.getHttpContext().getPath() + "?" + endpoint.normalize(parameters);
+				byte[] response = responses.get(key);
+				if (response != null) {
+					cacheHits.incrementAndGet();
+				} else {
+					cacheMisses.incrementAndGet();
+					response = endpoint.answer(parameters).getBytes(StandardCharsets.UTF_8);
+					responses.put(key, response);
+				}
+				send(exchange, 200, response);
+			} catch (QueryException e) {
+				send(exchange, e.status, error(e.getMessage()));
+			} catch (Exception e) {
+				logger.log(Level.SEVERE,"Unexpected error",e);
+				send(exchange, 500, error("Unexpected error"));
+			} finally {
+				exchange.close();
+			}
+		};
+	}
+
+	private static void send(HttpExchange exchange, int status, byte[] body) throws IOException {
+		exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+		exchange.sendResponseHeaders(status, body.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(body);
+		}
+	}
+
+	private static byte[] error(String message) {
+		StringBuilder json = new StringBuilder("{\"error\":");
+		appendString(json, message);
+		return json.append("}").toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static Map<String, String> parseQuery(String query) throws UnsupportedEncodingException {
+		Map<String, String> parameters = new HashMap<String, String>();
+		if (query == null)
+			return parameters;
+		for (String pair : query.split("&")) {
+			int equal = pair.indexOf('=');
+			if (equal > 0)
+				parameters.put(URLDecoder.decode(pair.substring(0, equal), "UTF-8"),
+						URLDecoder.decode(pair.substring(equal + 1), "UTF-8").trim());
+		}
+		return parameters;
+	}
+
+	private Endpoint listChords() {
+		return new Endpoint() {
+			@Override
+			public String normalize(Map<String, String> parameters) throws QueryException {
+				return normalizeScale(parameters);
+			}
+
+			@Override
+			public String answer(Map<String, String> parameters) throws Exception {
+				Catalog catalog = getCatalog(parameters);
+				StringBuilder json = new StringBuilder("{\"scale\":");
+				appendString(json, catalog.scale != null ? catalog.scale.getName() : "");
+				json.append(",\"chords\":");
+				appendChords(json, catalog.chords, null);
+				return json.append("}").toString();
+			}
+		};
+	}
+
+	private Endpoint nameChord() {
+		return new Endpoint() {
+			@Override
+			public String normalize(Map<String, String> parameters) throws QueryException {
+				return "notes=" + join(parseNotes(parameters));
+			}
+
+			@Override
+			public String answer(Map<String, String> parameters) throws Exception {
+				int[] notes = parseNotes(parameters);
+				Chord[] nodeChords = new Chord[2];
+				String name = identify(notes, nodeChords);
+				StringBuilder json = new StringBuilder("{\"notes\":[").append(join(notes)).append("],\"name\":");
+				appendString(json, name);
+				json.append(",\"chord\":");
+				appendChord(json, nodeChords[0], null);
+				json.append(",\"inversion\":");
+				appendChord(json, nodeChords[1], null);
+				return json.append("}").toString();
+			}
+		};
+	}
+
+	private Endpoint listInversions() {
+		return new Endpoint() {
+			@Override
+			public String normalize(Map<String, String> parameters) throws QueryException {
+				return normalizeChord(parameters);
+			}
+
+			@Override
+			public String answer(Map<String, String> parameters) throws Exception {
+				Chord chord = getChord(parameters);
+				Chord root = chord instanceof InvertedChord ? ((InvertedChord) chord).getBaseChord() : chord;
+				List<Chord> inversions = new ArrayList<Chord>();
+				inversions.add(root);
+				for (int inversion = 1; inversion < root.getFormula().getSize(); inversion++) {
+					InvertedChord invertedChord = ChordRegistry.getInvertedChord(root, inversion);
+					if (invertedChord != null)
+						inversions.add(invertedChord);
+				}
+				StringBuilder json = new StringBuilder("{\"chord\":");
+				appendChord(json, chord, null);
+				json.append(",\"inversions\":");
+				appendChords(json, inversions, null);
+				return json.append("}").toString();
+			}
+		};
+	}
+
+	private Endpoint listNearest() {
+		return new Endpoint() {
+			@Override
+			public String normalize(Map<String, String> parameters) throws QueryException {
+				return normalizeChord(parameters) + "&k=" + parseK(parameters) + "&" + normalizeScale(parameters);
+			}
+
+			@Override
+			public String answer(Map<String, String> parameters) throws Exception {
+				Chord chord = getChord(parameters);
+				Catalog catalog = getCatalog(parameters);
+				int k = parseK(parameters);
+				int[] notes = chord.getNoteArray();
+				List<Chord> candidates = new ArrayList<Chord>();
+				Map<Chord, Integer> distances = new HashMap<Chord, Integer>();
+				for (Chord candidate : catalog.chords) {
+					if (candidate.getChordName().equals(chord.getChordName()))
+						continue;
+					candidates.add(candidate);
+					distances.put(candidate, Chord.distance(notes, candidate.getNoteArray()));
+				}
+				// same order as ChordDistanceMatrix#getNearest: by distance then by name
+				candidates.sort(Comparator.comparing((Chord c) -> distances.get(c)).thenComparing(Chord::getChordName));
+				List<Chord> nearest = candidates.subList(0, Math.min(k, candidates.size()));
+				StringBuilder json = new StringBuilder("{\"chord\":");
+				appendChord(json, chord, null);
+				json.append(",\"nearest\":");
+				appendChords(json, nearest, distances);
+				return json.append("}").toString();
+			}
+		};
+	}
+
+	/**
+	 * @return name of the notes, the chord and one of its inversion in nodeChords, see {@link ChordGenerator#identifyChord}
+	 */
+	private String identify(int[] notes, Chord[] nodeChords) throws Exception {
+		int[] intervals = new int[notes.length];
+		for (int i = 0; i < notes.length; i++) {
+			intervals[i] = notes[i] - notes[0];
+		}
+		boolean valid = ChordFormula.isValid(intervals, intervals.length);
+		return namer.identifyChord(notes[0] % 12, intervals, intervals.length, valid, nodeChords);
+	}
+
+	/**
+	 * The chord of the parameter "chord" (a name from the catalog of all the keys) or "notes"
+	 */
+	private Chord getChord(Map<String, String> parameters) throws Exception {
+		String name = parameters.get("chord");
+		if (name != null) {
+			Chord chord = getCatalog(null).chordsByName.get(name);
+			if (chord == null)
+				throw new QueryException(404, "Unknown chord " + name);
+			return chord;
+		}
+		Chord[] nodeChords = new Chord[2];
+		identify(parseNotes(parameters), nodeChords);
+		if (nodeChords[0] == null)
+			throw new QueryException(400, "Not a chord: " + parameters.get("notes"));
+		return nodeChords[0];
+	}
+
+	private String normalizeChord(Map<String, String> parameters) throws QueryException {
+		String name = parameters.get("chord");
+		if (name != null)
+			return "chord=" + name;
+		return "notes=" + join(parseNotes(parameters));
+	}
+
+	/**
+	 * @param parameters root and formula, null for all the keys
+	 */
+	private Catalog getCatalog(Map<String, String> parameters) throws QueryException {
+		String key = parameters != null ? normalizeScale(parameters) : "";
+		Catalog catalog = catalogs.get(key);
+		if (catalog == null) {
+			Scale scale = null;
+			if (!key.isEmpty()) {
+				int root = parseNote(parameters.get("root"));
+				String formula = parameters.get("formula").toUpperCase();
+				try {
+					scale = new Scale(Intervals.getSharpNote(root) + " " + formula, root, new ScaleFormula(formula));
+				} catch (Exception e) {
+					throw new QueryException(400, "Invalid formula " + formula);
+				}
+			}
+			catalog = new Catalog(scale);
+			catalogs.put(key, catalog);
+		}
+		return catalog;
+	}
+
+	/**
+	 * @return "root=n&formula=..." or an empty string for all the keys
+	 */
+	private static String normalizeScale(Map<String, String> parameters) throws QueryException {
+		String root = parameters.get("root");
+		String formula = parameters.get("formula");
+		if (root == null && formula == null)
+			return "";
+		if (root == null || formula == null)
+			throw new QueryException(400, "A scale needs a root and a formula");
+		return "root=" + parseNote(root) + "&formula=" + formula.toUpperCase();
+	}
+
+	private static int parseK(Map<String, String> parameters) throws QueryException {
+		String k = parameters.get("k");
+		if (k == null)
+			return DEFAULT_NEAREST;
+		try {
+			int value = Integer.parseInt(k);
+			if (value > 0)
+				return value;
+		} catch (NumberFormatException e) {
+			// reported below
+		}
+		throw new QueryException(400, "Invalid k " + k);
+	}
+
+	/**
+	 * Notes from the lowest to the highest: a name is put above the previous note, a number is a semitone from C
+	 *
+	 * @return notes moved to the first octave, see {@link Chord#getOffsets()}
+	 */
+	private static int[] parseNotes(Map<String, String> parameters) throws QueryException {
+		String value = parameters.get("notes");
+		if (value == null || value.isEmpty())
+			throw new QueryException(400, "Missing parameter notes");
+		String[] names = value.split(",");
+		if (names.length > 12)
+			throw new QueryException(400, "Too many notes: " + value);
+		int[] notes = new int[names.length];
+		for (int i = 0; i < names.length; i++) {
+			String name = names[i].trim();
+			int note = parseNote(name);
+			if (!Character.isDigit(name.charAt(0))) {
+				while (i > 0 && note <= notes[i - 1])
+					note += 12;
+			}
+			if (i > 0 && note <= notes[i - 1])
+				throw new QueryException(400, "Notes must go up: " + value);
+			notes[i] = note;
+		}
+		int reduce = notes[0] / 12;
+		for (int i = 0; i < notes.length; i++) {
+			notes[i] -= reduce * 12;
+		}
+		return notes;
+	}
+
+	/**
+	 * @param name "C#", "Db", "c#" or a number of semitones from C
+	 */
+	private static int parseNote(String name) throws QueryException {
+		if (name == null || name.isEmpty())
+			throw new QueryException(400, "Missing note");
+		if (Character.isDigit(name.charAt(0))) {
+			try {
+				int note = Integer.parseInt(name);
+				if (note < 128)
+					return note;
+			} catch (NumberFormatException e) {
+				// reported below
+			}
+			throw new QueryException(400, "Invalid note " + name);
+		}
+		String normalized = Character.toUpperCase(name.charAt(0)) + name.substring(1).toLowerCase();
+		for (int note = 0; note < 12; note++) {
+			if (Intervals.getSharpNote(note).equals(normalized) || Intervals.getFlatNote(note).equals(normalized))
+				return note;
+		}
+		throw new QueryException(400, "Invalid note " + name);
+	}
+
+	private static String join(int[] values) {
+		StringBuilder result = new StringBuilder();
+		for (int i = 0; i < values.length; i++) {
+			if (i > 0)
+				result.append(',');
+			result.append(values[i]);
+		}
+		return result.toString();
+	}
+
+	private static void appendChords(StringBuilder json, List<Chord> chords, Map<Chord, Integer> distances) {
+		json.append('[');
+		for (int i = 0; i < chords.size(); i++) {
+			if (i > 0)
+				json.append(',');
+			appendChord(json, chords.get(i), distances != null ? distances.get(chords.get(i)) : null);
+		}
+		json.append(']');
+	}
+
+	private static void appendChord(StringBuilder json, Chord chord, Integer distance) {
+		if (chord == null) {
+			json.append("null");
+			return;
+		}
+		json.append("{\"name\":");
+		appendString(json, chord.getChordName());
+		json.append(",\"notes\":");
+		appendString(json, chord.getChordNotes());
+		json.append(",\"offsets\":[").append(join(chord.getNoteArray())).append(']');
+		json.append(",\"type\":");
+		appendString(json, chord.getType());
+		json.append(",\"inversion\":").append(chord instanceof InvertedChord ? ((InvertedChord) chord).getInversion() : 0);
+		if (distance != null)
+			json.append(",\"distance\":").append(distance);
+		json.append('}');
+	}
+
+	private static void appendString(StringBuilder json, String value) {
+		json.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '"' || c == '\\')
+				json.append('\\').append(c);
+			else if (c < 0x20)
+				json.append(String.format("\\u%04x", (int) c));
+			else
+				json.append(c);
+		}
+		json.append('"');
+	}
+
+	/**
+	 * @return number of responses in the cache
+	 */
+	public int getCacheSize() {
+		return responses.size();
+	}
+}
@@ -0,0 +1,134 @@
+package com.hypercube.harmony;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Measure the throughput and the latencies of a {@link ChordServer}
+ *
+ * Each thread sends its requests one after the other, going through a mix of queries on all the endpoints.
+ * Without --url, a server is started in the same JVM on a free port.
+ *
+ * Arguments: --url=http://localhost:8765 --threads=8 --requests=20000 --warmup=2000
+ *
+ * @author hypercube software
+ *
+ */
+public class ChordServerLoadTest {
+	static Logger logger = Logger.getLogger(ChordServerLoadTest.class.getName());
+
+	private static final String[] QUERIES = new String[] { "/chords", "/chords?root=D&formula=T-T-S-T-T-T-S",
+			"/chords?root=A&formula=T-S-T-T-S-T-T", "/name?notes=C,E,G", "/name?notes=E,G,C", "/name?notes=0,4,7,11",
+			"/name?notes=D,F,A,C", "/name?notes=G,B,D,F,A", "/name?notes=C,D,G", "/name?notes=F%23,A,C,E",
+			"/inversions?chord=Cmaj7", "/inversions?notes=C,E,G,B", "/inversions?chord=Gdom7", "/nearest?chord=Cmaj7&k=5",
+			"/nearest?chord=Am&k=10", "/nearest?chord=Gdom7&k=5&root=C&formula=T-T-S-T-T-T-S" };
+
+	private String url = "http://localhost:" + ChordServer.DEFAULT_PORT;
+	private int threads = 8;
+	private int requests = 20000;
+	private int warmup = 2000;
+
+	public static void main(String[] args) throws Exception {
+		ChordGenerator.initLogs();
+		ChordServerLoadTest test = new ChordServerLoadTest();
+		ChordServer server = null;
+		boolean external = false;
+		for (String arg : args)
+		{
+			if (arg.startsWith("--url="))
+			{
+				test.url = arg.substring("--url=".length());
+				external = true;
+			}
+			else if (arg.startsWith("--threads="))
+				test.threads = Integer.parseInt(arg.substring("--threads=".length()));
+			else if (arg.startsWith("--requests="))
+				test.requests = Integer.parseInt(arg.substring("--requests=".length()));
+			else if (arg.startsWith("--warmup="))
+				test.warmup = Integer.parseInt(arg.substring("--warmup=".length()));
+		}
+		if (!external)
+		{
+			server = new ChordServer(0, ChordServer.DEFAULT_CACHE_SIZE);
+			server.start();
+			test.url = "http://localhost:" + server.getPort();
+		}
+		try {
+			test.run(test.warmup);
+			logger.info(test.run(test.requests));
+			if (server != null)
+				logger.info("cache: " + server.getCacheHits() + " hits, " + server.getCacheMisses() + " misses");
+		} finally {
+			if (server != null)
+				server.stop();
+		}
+	}
+
+	/**
+	 * @return a report of the run
+	 */
+	String run(int nbRequests) throws InterruptedException {
+		long[] latencies = new long[nbRequests];
+		AtomicInteger next = new AtomicInteger();
+		AtomicInteger errors = new AtomicInteger();
+		CountDownLatch done = new CountDownLatch(threads);
+		long start = System.nanoTime();
+		for (int t = 0; t < threads; t++) {
+			Thread worker = new Thread(() -> {
+				try {
+					int i;
+					while ((i = next.getAndIncrement()) < nbRequests) {
+						long begin = System.nanoTime();
+						if (!send(QUERIES[i % QUERIES.length]))
+							errors.incrementAndGet();
+						latencies[i] = System.nanoTime() - begin;
+					}
+				} finally {
+					done.countDown();
+				}
+			}, "load-test-" + t);
+			worker.start();
+		}
+		done.await();
+		long elapsed = System.nanoTime() - start;
+		Arrays.sort(latencies);
+		return nbRequests + " requests on " + threads + " threads in " + TimeUnit.NANOSECONDS.toMillis(elapsed)
+				+ "ms: " + (long) (nbRequests * 1e9 / elapsed) + " requests/s, latency p50 " + micros(latencies, 0.50)
+				+ "us p99 " + micros(latencies, 0.99) + "us max " + micros(latencies, 1.0) + "us, " + errors.get()
+				+ " errors";
+	}
+
+	private static long micros(long[] sortedLatencies, double percentile) {
+		if (sortedLatencies.length == 0)
+			return 0;
+		int index = (int) Math.ceil(percentile * sortedLatencies.length) - 1;
+		return TimeUnit.NANOSECONDS.toMicros(sortedLatencies[Math.max(0, index)]);
+	}
+
+	/**
+	 * @return true if the server answered 200
+	 */
+	private boolean send(String query) {
+		try {
+			HttpURLConnection connection = (HttpURLConnection) new URL(url + query).openConnection();
+			int status = connection.getResponseCode();
+			// read the whole body so the connection is kept alive
+			try (InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+				if (in != null)
+					in.readAllBytes();
+			}
+			return status == 200;
+		} catch (IOException e) {
+			logger.log(Level.SEVERE,"Unexpected error",e);
+			return false;
+		}
+	}
+}
@@ -0,0 +1,221 @@
+package com.hypercube.harmony;
+
+import java.util.Arrays;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Lazy version of the {@link ChordGenerator} recursion, without any output file
+ *
+ * The tree is walked depth first with an explicit stack, a node is visited before its children.
+ * Each named node of 3 notes or more gives the chords that the generator would register:
+ * the inverted form first (if any), then the chord itself.
+ *
+ * The spliterator owns a range of root notes which are not started yet, and optionally a subtree in progress.
+ * It is split by root note first, then by the children of the shallowest node having some left.
+ *
+ * @author hypercube software
+ *
+ */
+class ChordSpliterator implements Spliterator<Chord> {
+	static Logger logger = Logger.getLogger(ChordSpliterator.class.getName());
+	private final ChordGenerator generator;
+	private final int maxNotes;
+	private final int maxInterval;
+	private final int maxGap;
+	/**
+	 * Root notes not started yet
+	 */
+	private int rootFrom;
+	private final int rootTo;
+	/**
+	 * Subtree in progress, "size" is 0 when there is none
+	 * The spliterator never goes up above the node of "baseSize" notes
+	 */
+	private int rootNote;
+	private int size;
+	private int baseSize;
+	private final int[] notes;
+	/**
+	 * By number of notes of a node: state of the node, and the range of its children left to explore
+	 */
+	private final int[] intervalMasks;
+	private final int[] masks;
+	private final int[] maxSpreads;
+	private final int[] nextChild;
+	private final int[] lastChild;
+	/**
+	 * Chords of the last visited node not consumed yet
+	 */
+	private final Chord[] nodeChords = new Chord[2];
+
+	/**
+	 * The limits of the generator are used, not its budget
+	 */
+	ChordSpliterator(ChordGenerator generator) {
+		this(generator, generator.getConfig().getMaxNotes(), generator.getConfig().getMaxInterval(),
+				generator.getConfig().getMaxGap(), 0, 12);
+	}
+
+	private ChordSpliterator(ChordGenerator generator, int maxNotes, int maxInterval, int maxGap, int rootFrom, int rootTo) {
+		this.generator = generator;
+		this.rootFrom = rootFrom;
+		this.rootTo = rootTo;
+		this.maxNotes = maxNotes;
+		this.maxInterval = maxInterval;
+		this.maxGap = maxGap;
+		int stackSize = maxNotes + 1;
+		notes = new int[stackSize];
+		intervalMasks = new int[stackSize + 1];
+		masks = new int[stackSize + 1];
+		maxSpreads = new int[stackSize + 1];
+		nextChild = new int[stackSize + 1];
+		lastChild = new int[stackSize + 1];
+	}
+
+	private ChordSpliterator(ChordSpliterator parent, int rootFrom, int rootTo) {
+		this(parent.generator, parent.maxNotes, parent.maxInterval, parent.maxGap, rootFrom, rootTo);
+	}
+
+	@Override
+	public boolean tryAdvance(Consumer<? super Chord> action) {
+		while (true) {
+			for (int i = nodeChords.length - 1; i >= 0; i--) {
+				if (nodeChords[i] != null) {
+					Chord chord = nodeChords[i];
+					nodeChords[i] = null;
+					action.accept(chord);
+					return true;
+				}
+			}
+			if (size == 0 && !startRoot())
+				return false;
+			advance();
+		}
+	}
+
+	/**
+	 * Start the next root note, the root node itself has no chord
+	 *
+	 * @return false if there is no more root note
+	 */
+	private boolean startRoot() {
+		while (rootFrom < rootTo) {
+			int rn = rootFrom++;
+			if (generator.isRootNote(rn)) {
+				rootNote = rn;
+				baseSize = 1;
+				push(0, 1, 1, 1, 0);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void push(int interval, int newSize, int intervalMask, int mask, int maxSpread) {
+		notes[newSize - 1] = interval;
+		size = newSize;
+		intervalMasks[size] = intervalMask;
+		masks[size] = mask;
+		maxSpreads[size] = maxSpread;
+		nextChild[size] = interval + 1;
+		// limit the recursion to 7 notes chords by default
+		lastChild[size] = size < maxNotes
+				? Math.min(interval + maxGap, maxInterval)
+				: interval;
+	}
+
+	/**
+	 * Go to the next node, and collect its chords
+	 */
+	private void advance() {
+		while (nextChild[size] <= lastChild[size]) {
+			int i = nextChild[size]++;
+			if (!generator.isExplored(rootNote, intervalMasks[size], i))
+				continue;
+			int interval = notes[size - 1];
+			push(i, size + 1, intervalMasks[size] | (1 << i), masks[size] | (1 << (i % 12)),
+					Math.max(maxSpreads[size], i - interval));
+			visit();
+			return;
+		}
+		// no more children, go up
+		size = size > baseSize ? size - 1 : 0;
+	}
+
+	private void visit() {
+		boolean valid = ChordFormula.isValid(masks[size], size, maxSpreads[size]);
+		try {
+			if (size >= 3 && ChordGenerator.isNamed(notes, size, valid, intervalMasks[size]))
+				generator.identifyChord(rootNote, notes, size, valid, nodeChords);
+		} catch (Exception e) {
+			logger.log(Level.SEVERE, "Unexpected error", e);
+		}
+	}
+
+	@Override
+	public Spliterator<Chord> trySplit() {
+		if (size == 0 && rootTo - rootFrom == 1) {
+			if (!startRoot())
+				return null;
+		}
+		if (size == 0) {
+			if (rootTo - rootFrom < 2)
+				return null;
+			int middle = (rootFrom + rootTo) >>> 1;
+			ChordSpliterator prefix = new ChordSpliterator(this, rootFrom, middle);
+			rootFrom = middle;
+			return prefix;
+		}
+		if (rootFrom < rootTo) {
+			// the subtree in progress and the first root notes left
+			int middle = (rootFrom + rootTo) >>> 1;
+			ChordSpliterator prefix = copy(rootFrom, middle);
+			rootFrom = middle;
+			size = 0;
+			Arrays.fill(nodeChords, null);
+			return prefix;
+		}
+		// shallowest node having children left
+		int depth = baseSize;
+		while (depth <= size && nextChild[depth] > lastChild[depth])
+			depth++;
+		if (depth > size || lastChild[depth] - nextChild[depth] < 1)
+			return null;
+		int middle = (nextChild[depth] + lastChild[depth] + 1) >>> 1;
+		ChordSpliterator prefix = copy(rootFrom, rootTo);
+		prefix.lastChild[depth] = middle - 1;
+		size = depth;
+		baseSize = depth;
+		nextChild[depth] = middle;
+		Arrays.fill(nodeChords, null);
+		return prefix;
+	}
+
+	private ChordSpliterator copy(int rootFrom, int rootTo) {
+		ChordSpliterator copy = new ChordSpliterator(this, rootFrom, rootTo);
+		copy.rootNote = rootNote;
+		copy.size = size;
+		copy.baseSize = baseSize;
+		System.arraycopy(notes, 0, copy.notes, 0, notes.length);
+		System.arraycopy(intervalMasks, 0, copy.intervalMasks, 0, intervalMasks.length);
+		System.arraycopy(masks, 0, copy.masks, 0, masks.length);
+		System.arraycopy(maxSpreads, 0, copy.maxSpreads, 0, maxSpreads.length);
+		System.arraycopy(nextChild, 0, copy.nextChild, 0, nextChild.length);
+		System.arraycopy(lastChild, 0, copy.lastChild, 0, lastChild.length);
+		System.arraycopy(nodeChords, 0, copy.nodeChords, 0, nodeChords.length);
+		return copy;
+	}
+
+	@Override
+	public long estimateSize() {
+		return Long.MAX_VALUE;
+	}
+
+	@Override
+	public int characteristics() {
+		return ORDERED | NONNULL | IMMUTABLE;
+	}
+}
@@ -0,0 +1,80 @@
+package com.hypercube.harmony;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * CSV (RFC 4180), nodes and edges in the same table, the first column tells which one it is:
+ * type,id,source,target,label,color,dashed
+ * If the generation was stopped, the last row is "incomplete" with the reason as label
+ *
+ * @author hypercube software
+ *
+ */
+public class CsvSink extends TextGraphSink {
+
+	public CsvSink(WritableByteChannel channel, boolean compressed) throws IOException {
+		super(channel, compressed);
+	}
+
+	@Override
+	public void start() {
+		out.print("type,id,source,target,label,color,dashed\r\n");
+	}
+
+	@Override
+	public void node(int id, String label, String color) {
+		out.print("node,");
+		out.print(id);
+		out.print(",,,");
+		printField(label);
+		out.print(',');
+		printField(color);
+		out.print(",\r\n");
+	}
+
+	@Override
+	public void edge(int index, int from, int to, String label, String color, boolean dashed) {
+		out.print("edge,,");
+		out.print(from);
+		out.print(',');
+		out.print(to);
+		out.print(',');
+		printField(label);
+		out.print(',');
+		printField(color);
+		out.print(dashed ? ",true\r\n" : ",false\r\n");
+	}
+
+	@Override
+	public void end(String stopReason) {
+		if (stopReason != null) {
+			out.print("incomplete,,,,");
+			printField(stopReason);
+			out.print(",,\r\n");
+		}
+	}
+
+	/**
+	 * Fields with a separator, a quote or a line break are quoted
+	 */
+	private void printField(String value) {
+		boolean quoted = false;
+		for (int i = 0; i < value.length() && !quoted; i++) {
+			char c = value.charAt(i);
+			quoted = c == ',' || c == '"' || c == '\n' || c == '\r';
+		}
+		if (!quoted) {
+			out.print(value);
+			return;
+		}
+		out.print('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '"')
+				out.print('"');
+			out.print(c);
+		}
+		out.print('"');
+	}
+}
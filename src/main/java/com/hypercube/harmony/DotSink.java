@@ -0,0 +1,72 @@
+package com.hypercube.harmony;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Graphviz DOT, nodes and edges are written as they come
+ *
+ * @author hypercube software
+ *
+ */
+public class DotSink extends TextGraphSink {
+
+	public DotSink(WritableByteChannel channel, boolean compressed) throws IOException {
+		super(channel, compressed);
+	}
+
+	@Override
+	public void start() {
+		out.print("digraph G {\n");
+		out.print("\tnode [style=filled];\n");
+	}
+
+	@Override
+	public void node(int id, String label, String color) {
+		out.print("\tn");
+		out.print(id);
+		out.print(" [label=");
+		printString(label);
+		out.print(", fillcolor=\"");
+		out.print(color);
+		out.print("\"];\n");
+	}
+
+	@Override
+	public void edge(int index, int from, int to, String label, String color, boolean dashed) {
+		out.print("\tn");
+		out.print(from);
+		out.print(" -> n");
+		out.print(to);
+		out.print(" [label=");
+		printString(label);
+		out.print(", color=\"");
+		out.print(color);
+		out.print(dashed ? "\", style=dashed];\n" : "\"];\n");
+	}
+
+	@Override
+	public void end(String stopReason) {
+		if (stopReason != null) {
+			out.print("\tlabel=");
+			printString("incomplete: " + stopReason);
+			out.print(";\n");
+		}
+		out.print("}\n");
+	}
+
+	private void printString(String value) {
+		out.print('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '\n')
+				out.print("\\n");
+			else {
+				if (c == '"' || c == '\\')
+					out.print('\\');
+				out.print(c);
+			}
+		}
+		out.print('"');
+	}
+}
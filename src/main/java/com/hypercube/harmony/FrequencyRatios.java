@@ -0,0 +1,176 @@
+package com.hypercube.harmony;
+
+import java.util.Collection;
+
+/**
+ * Frequency ratios of many chords in a {@link Tuning}, with their rational approximation
+ *
+ * The notes of all the chords are stored one after the other in primitive arrays,
+ * the notes of the chord n are between {@link #getStart(int)} n and n+1.
+ * Each ratio is relative to the root note of its chord, so the root is 1/1.
+ *
+ * @author hypercube software
+ *
+ */
+public class FrequencyRatios {
+	/**
+	 * Relative error of the fractions, enough to find the pure intervals back
+	 */
+	public static final double DEFAULT_TOLERANCE = 1.0E-6;
+	/**
+	 * Stop before the fraction overflows, when the ratio is irrational (equal temperament)
+	 */
+	private static final double MAX_TERM = Integer.MAX_VALUE;
+
+	private final Tuning tuning;
+	private final int[] starts;
+	private final double[] ratios;
+	private final int[] numerators;
+	private final int[] denominators;
+
+	private FrequencyRatios(Tuning tuning, int nbChords, int nbNotes) {
+		this.tuning = tuning;
+		starts = new int[nbChords + 1];
+		ratios = new double[nbNotes];
+		numerators = new int[nbNotes];
+		denominators = new int[nbNotes];
+	}
+
+	/**
+	 * Ratios of the root positions of a catalog, read in place
+	 */
+	public static FrequencyRatios compute(Tuning tuning, ChordCatalog catalog, double tolerance) {
+		int nbNotes = 0;
+		for (int c = 0; c < catalog.size(); c++) {
+			nbNotes += catalog.get(c).getSize();
+		}
+		FrequencyRatios result = new FrequencyRatios(tuning, catalog.size(), nbNotes);
+		int position = 0;
+		for (int c = 0; c < catalog.size(); c++) {
+			ChordCatalog.Entry entry = catalog.get(c);
+			int rootNote = entry.getRootNote();
+			result.starts[c] = position;
+			for (int i = 0; i < entry.getSize(); i++) {
+				result.set(position++, tuning.getRatio(rootNote + entry.getInterval(i), rootNote), tolerance);
+			}
+		}
+		result.starts[catalog.size()] = position;
+		return result;
+	}
+
+	/**
+	 * Ratios of the chords as they are voiced, see {@link Chord#getOffsets()}
+	 */
+	public static FrequencyRatios compute(Tuning tuning, Collection<Chord> chords, double tolerance) {
+		int nbNotes = 0;
+		for (Chord chord : chords) {
+			nbNotes += chord.getNoteArray().length;
+		}
+		FrequencyRatios result = new FrequencyRatios(tuning, chords.size(), nbNotes);
+		int position = 0;
+		int c = 0;
+		for (Chord chord : chords) {
+			int[] notes = chord.getNoteArray();
+			int rootNote = getRootNote(notes, chord.getBaseNote());
+			result.starts[c++] = position;
+			for (int note : notes) {
+				result.set(position++, tuning.getRatio(note, rootNote), tolerance);
+			}
+		}
+		result.starts[c] = position;
+		return result;
+	}
+
+	public static FrequencyRatios compute(Tuning tuning, ChordCatalog catalog) {
+		return compute(tuning, catalog, DEFAULT_TOLERANCE);
+	}
+
+	public static FrequencyRatios compute(Tuning tuning, Collection<Chord> chords) {
+		return compute(tuning, chords, DEFAULT_TOLERANCE);
+	}
+
+	/**
+	 * @return lowest note having the pitch class of the root, the bass if the root is not in the chord
+	 */
+	private static int getRootNote(int[] notes, int baseNote) {
+		for (int note : notes) {
+			if (note % 12 == baseNote % 12)
+				return note;
+		}
+		return notes[0];
+	}
+
+	private void set(int position, double ratio, double tolerance) {
+		ratios[position] = ratio;
+		long fraction = toFraction(ratio, tolerance);
+		numerators[position] = (int) (fraction >>> 32);
+		denominators[position] = (int) fraction;
+	}
+
+	/**
+	 * Continued fraction expansion of a positive number, stopped when the relative error is below the tolerance
+	 *
+	 * @return numerator in the high 32 bits, denominator in the low 32 bits
+	 */
+	static long toFraction(double x, double tolerance) {
+		double h1 = 1;
+		double h2 = 0;
+		double k1 = 0;
+		double k2 = 1;
+		double b = x;
+		do {
+			double a = Math.floor(b);
+			double h = a * h1 + h2;
+			double k = a * k1 + k2;
+			if (h > MAX_TERM || k > MAX_TERM)
+				break;
+			h2 = h1;
+			h1 = h;
+			k2 = k1;
+			k1 = k;
+			if (b == a)
+				break;
+			b = 1 / (b - a);
+		} while (Math.abs(x - h1 / k1) > x * tolerance);
+		return ((long) h1 << 32) | (long) k1;
+	}
+
+	public Tuning getTuning() {
+		return tuning;
+	}
+
+	/**
+	 * @return number of chords
+	 */
+	public int size() {
+		return starts.length - 1;
+	}
+
+	/**
+	 * @return index of the first note of a chord in the arrays, {@link #size()} gives the end of the last one
+	 */
+	public int getStart(int chord) {
+		return starts[chord];
+	}
+
+	/**
+	 * @return ratios of all the notes, this is shared and must not be modified
+	 */
+	public double[] getRatios() {
+		return ratios;
+	}
+
+	/**
+	 * @return numerators of the fractions of all the notes, this is shared and must not be modified
+	 */
+	public int[] getNumerators() {
+		return numerators;
+	}
+
+	/**
+	 * @return denominators of the fractions of all the notes, this is shared and must not be modified
+	 */
+	public int[] getDenominators() {
+		return denominators;
+	}
+}
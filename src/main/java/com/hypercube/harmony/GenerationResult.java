@@ -0,0 +1,81 @@
+package com.hypercube.harmony;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Outcome of a generation run by {@link ChordGenerationService}
+ *
+ * @author hypercube software
+ *
+ */
+public class GenerationResult {
+	private final Scale scale;
+	private final List<Chord> chords;
+	private final String stopReason;
+	private final File file;
+	private final boolean upToDate;
+	private final long timeMillis;
+
+	GenerationResult(Scale scale, Collection<Chord> chords, String stopReason, File file, boolean upToDate,
+			long timeMillis) {
+		this.scale = scale;
+		this.chords = Collections.unmodifiableList(new ArrayList<Chord>(chords));
+		this.stopReason = stopReason;
+		this.file = file;
+		this.upToDate = upToDate;
+		this.timeMillis = timeMillis;
+	}
+
+	/**
+	 * @return null for all the keys
+	 */
+	public Scale getScale() {
+		return scale;
+	}
+
+	/**
+	 * @return one chord per name, see {@link ChordGenerator#getChords()}, empty when the file was up to date
+	 */
+	public List<Chord> getChords() {
+		return chords;
+	}
+
+	/**
+	 * @return false if the budget was exhausted or the run was cancelled, see {@link ChordGenerator#isComplete()}
+	 */
+	public boolean isComplete() {
+		return stopReason == null;
+	}
+
+	public String getStopReason() {
+		return stopReason;
+	}
+
+	/**
+	 * @return file generated in the output folder, null when the graph went to a stream or a sink
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * @return true if nothing was generated because the file was up to date, see {@link ChordGenerator#isUpToDate()}
+	 */
+	public boolean isUpToDate() {
+		return upToDate;
+	}
+
+	public long getTimeMillis() {
+		return timeMillis;
+	}
+
+	@Override
+	public String toString() {
+		return (scale != null ? scale.getName() : "chromatic") + ": " + (upToDate ? "up to date"
+				: chords.size() + " chords in " + timeMillis + "ms" + (stopReason != null ? ", " + stopReason : ""));
+	}
+}
@@ -0,0 +1,119 @@
+package com.hypercube.harmony;
+
+/**
+ * Limits of the {@link ChordGenerator} recursion and budget of a generation
+ *
+ * The default limits are the ones of the indexes ({@link ReachabilityIndex}, {@link InversionIndex}):
+ * chords up to 7 notes, up to a 13th, no more than 6 semitones between two notes.
+ * Wider limits are allowed but the generator can not prune dead subtrees anymore, see {@link #isIndexed()}.
+ *
+ * A generation stops when the budget is exhausted, the result is then incomplete, see {@link ChordGenerator#isComplete()}
+ *
+ * @author hypercube software
+ *
+ */
+public class GeneratorConfig {
+	/**
+	 * Notes have different pitch classes
+	 */
+	private static final int MAX_NOTES = 12;
+	/**
+	 * Intervals are tracked in int masks
+	 */
+	private static final int MAX_INTERVAL = 31;
+
+	private int maxNotes = ChordGenerator.MAX_NOTES;
+	private int maxInterval = ChordGenerator.MAX_INTERVAL;
+	private int maxGap = ChordGenerator.MAX_GAP;
+	private long maxNodes;
+	private long maxTimeMillis;
+
+	public int getMaxNotes() {
+		return maxNotes;
+	}
+
+	/**
+	 * Biggest chord, from 1 to 12 notes
+	 */
+	public void setMaxNotes(int maxNotes) {
+		if (maxNotes < 1 || maxNotes > MAX_NOTES)
+			throw new IllegalArgumentException("Max notes must be between 1 and " + MAX_NOTES + ": " + maxNotes);
+		this.maxNotes = maxNotes;
+	}
+
+	public int getMaxInterval() {
+		return maxInterval;
+	}
+
+	/**
+	 * Biggest interval from the root note in semitones, from 1 to 31 (2 octaves and a 5th)
+	 */
+	public void setMaxInterval(int maxInterval) {
+		if (maxInterval < 1 || maxInterval > MAX_INTERVAL)
+			throw new IllegalArgumentException("Max interval must be between 1 and " + MAX_INTERVAL + ": " + maxInterval);
+		this.maxInterval = maxInterval;
+	}
+
+	public int getMaxGap() {
+		return maxGap;
+	}
+
+	/**
+	 * Biggest gap between two consecutive notes in semitones
+	 */
+	public void setMaxGap(int maxGap) {
+		if (maxGap < 1)
+			throw new IllegalArgumentException("Max gap must be positive: " + maxGap);
+		this.maxGap = maxGap;
+	}
+
+	public long getMaxNodes() {
+		return maxNodes;
+	}
+
+	/**
+	 * Stop the generation after this number of visited nodes, 0 for no limit
+	 */
+	public void setMaxNodes(long maxNodes) {
+		if (maxNodes < 0)
+			throw new IllegalArgumentException("Max nodes can not be negative: " + maxNodes);
+		this.maxNodes = maxNodes;
+	}
+
+	public long getMaxTimeMillis() {
+		return maxTimeMillis;
+	}
+
+	/**
+	 * Stop the generation after this time, 0 for no limit
+	 */
+	public void setMaxTimeMillis(long maxTimeMillis) {
+		if (maxTimeMillis < 0)
+			throw new IllegalArgumentException("Max time can not be negative: " + maxTimeMillis);
+		this.maxTimeMillis = maxTimeMillis;
+	}
+
+	/**
+	 * @return true if every chord explored is in the indexes, so the dead subtrees can be pruned
+	 */
+	public boolean isIndexed() {
+		return maxNotes <= ChordGenerator.MAX_NOTES && maxInterval <= ChordGenerator.MAX_INTERVAL
+				&& maxGap <= ChordGenerator.MAX_GAP;
+	}
+
+	GeneratorConfig copy() {
+		GeneratorConfig copy = new GeneratorConfig();
+		copy.maxNotes = maxNotes;
+		copy.maxInterval = maxInterval;
+		copy.maxGap = maxGap;
+		copy.maxNodes = maxNodes;
+		copy.maxTimeMillis = maxTimeMillis;
+		return copy;
+	}
+
+	@Override
+	public String toString() {
+		return maxNotes + " notes, interval " + maxInterval + ", gap " + maxGap + ", " + (maxNodes > 0 ? maxNodes : "no")
+				+ " node limit, " + (maxTimeMillis > 0 ? maxTimeMillis + "ms" : "no") + " time limit";
+	}
+}
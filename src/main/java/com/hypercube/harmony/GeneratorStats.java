@@ -0,0 +1,214 @@
+package com.hypercube.harmony;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.ObjectName;
+
+/**
+ * Metrics of all the generators of the JVM, registered as the platform MBean "com.hypercube.harmony:type=ChordGenerator"
+ *
+ * The recursion counts in plain fields of its exploration, see {@link ChordGenerator.Exploration},
+ * and adds them here once per subtree. Counters are {@link LongAdder} so parallel tasks do not contend on them.
+ *
+ * @author hypercube software
+ *
+ */
+public class GeneratorStats implements GeneratorStatsMBean {
+	static Logger logger = Logger.getLogger(GeneratorStats.class.getName());
+	static final String OBJECT_NAME = "com.hypercube.harmony:type=ChordGenerator";
+
+	/**
+	 * Counters of an exploration, see {@link #add(int, long[])}
+	 */
+	static final int NODES_VISITED = 0;
+	static final int PRUNED_BY_GAP = 1;
+	static final int PRUNED_BY_SCALE = 2;
+	static final int PRUNED_BY_REACHABILITY = 3;
+	static final int NAMED_NODES = 4;
+	static final int UNNAMED_NODES = 5;
+	static final int INVERSION_LOOKUPS = 6;
+	static final int CHORDS_FOUND = 7;
+	static final int NB_COUNTERS = 8;
+
+	private static final int HISTOGRAM_SIZE = 32;
+
+	private final LongAdder[] counters = createAdders(NB_COUNTERS);
+	private final LongAdder[] nodesPerRoot = createAdders(12);
+	private final LongAdder[] chordsPerRoot = createAdders(12);
+	private final LongAdder[] timePerRoot = createAdders(12);
+	private final LongAdder[] rootTimeHistogram = createAdders(HISTOGRAM_SIZE);
+	private final LongAdder bytesWritten = new LongAdder();
+	private final LongAdder generations = new LongAdder();
+	private final LongAdder generationTime = new LongAdder();
+
+	private static class Holder {
+		static final GeneratorStats INSTANCE = register(new GeneratorStats());
+	}
+
+	/**
+	 * @return the instance shared by all the generators, registered on first use
+	 */
+	public static GeneratorStats get() {
+		return Holder.INSTANCE;
+	}
+
+	private static GeneratorStats register(GeneratorStats stats) {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(stats, new ObjectName(OBJECT_NAME));
+		} catch (Exception e) {
+			// the generation works without JMX
+			logger.log(Level.SEVERE,"Unexpected error",e);
+		}
+		return stats;
+	}
+
+	private static LongAdder[] createAdders(int size) {
+		LongAdder[] adders = new LongAdder[size];
+		for (int i = 0; i < size; i++) {
+			adders[i] = new LongAdder();
+		}
+		return adders;
+	}
+
+	private static long[] sum(LongAdder[] adders) {
+		long[] values = new long[adders.length];
+		for (int i = 0; i < adders.length; i++) {
+			values[i] = adders[i].sum();
+		}
+		return values;
+	}
+
+	/**
+	 * Add the counters of an exploration and clear them
+	 */
+	void add(int rootNote, long[] counts) {
+		for (int i = 0; i < NB_COUNTERS; i++) {
+			if (counts[i] != 0)
+				counters[i].add(counts[i]);
+		}
+		nodesPerRoot[rootNote].add(counts[NODES_VISITED]);
+		chordsPerRoot[rootNote].add(counts[CHORDS_FOUND]);
+		Arrays.fill(counts, 0);
+	}
+
+	void addRootTime(int rootNote, long nanos) {
+		timePerRoot[rootNote].add(nanos);
+		long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+		int bucket = Math.min(HISTOGRAM_SIZE - 1, 64 - Long.numberOfLeadingZeros(micros));
+		rootTimeHistogram[bucket].increment();
+	}
+
+	void addGeneration(long nanos) {
+		generations.increment();
+		generationTime.add(nanos);
+	}
+
+	void addBytesWritten(long bytes) {
+		bytesWritten.add(bytes);
+	}
+
+	@Override
+	public long getGenerations() {
+		return generations.sum();
+	}
+
+	@Override
+	public long getGenerationTimeMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(generationTime.sum());
+	}
+
+	@Override
+	public long getNodesVisited() {
+		return counters[NODES_VISITED].sum();
+	}
+
+	@Override
+	public long getNodesPrunedByGap() {
+		return counters[PRUNED_BY_GAP].sum();
+	}
+
+	@Override
+	public long getNodesPrunedByScale() {
+		return counters[PRUNED_BY_SCALE].sum();
+	}
+
+	@Override
+	public long getNodesPrunedByReachability() {
+		return counters[PRUNED_BY_REACHABILITY].sum();
+	}
+
+	@Override
+	public long getNamedNodes() {
+		return counters[NAMED_NODES].sum();
+	}
+
+	@Override
+	public long getUnnamedNodes() {
+		return counters[UNNAMED_NODES].sum();
+	}
+
+	@Override
+	public long getInversionLookups() {
+		return counters[INVERSION_LOOKUPS].sum();
+	}
+
+	@Override
+	public long getChordsFound() {
+		return counters[CHORDS_FOUND].sum();
+	}
+
+	@Override
+	public long getBytesWritten() {
+		return bytesWritten.sum();
+	}
+
+	@Override
+	public long[] getNodesVisitedPerRoot() {
+		return sum(nodesPerRoot);
+	}
+
+	@Override
+	public long[] getChordsFoundPerRoot() {
+		return sum(chordsPerRoot);
+	}
+
+	@Override
+	public long[] getTimePerRootMicros() {
+		long[] values = sum(timePerRoot);
+		for (int i = 0; i < values.length; i++) {
+			values[i] = TimeUnit.NANOSECONDS.toMicros(values[i]);
+		}
+		return values;
+	}
+
+	@Override
+	public long[] getRootTimeHistogram() {
+		return sum(rootTimeHistogram);
+	}
+
+	@Override
+	public void reset() {
+		for (LongAdder[] adders : new LongAdder[][] { counters, nodesPerRoot, chordsPerRoot, timePerRoot, rootTimeHistogram }) {
+			for (LongAdder adder : adders) {
+				adder.reset();
+			}
+		}
+		bytesWritten.reset();
+		generations.reset();
+		generationTime.reset();
+	}
+
+	@Override
+	public String toString() {
+		return getGenerations() + " generations in " + getGenerationTimeMillis() + "ms, " + getNodesVisited()
+				+ " nodes visited, pruned: " + getNodesPrunedByGap() + " by gap " + getNodesPrunedByScale() + " by scale "
+				+ getNodesPrunedByReachability() + " by reachability, " + getNamedNodes() + " named " + getUnnamedNodes()
+				+ " unnamed, " + getInversionLookups() + " inversion lookups, " + getChordsFound() + " chords found, "
+				+ getBytesWritten() + " bytes written";
+	}
+}
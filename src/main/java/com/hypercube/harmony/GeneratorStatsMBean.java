@@ -0,0 +1,80 @@
+package com.hypercube.harmony;
+
+/**
+ * Counters of {@link ChordGenerator} published through JMX, cumulated since the start or the last reset
+ *
+ * @author hypercube software
+ *
+ */
+public interface GeneratorStatsMBean {
+	/**
+	 * Number of files or sinks generated
+	 */
+	long getGenerations();
+
+	long getGenerationTimeMillis();
+
+	/**
+	 * Nodes of the tree explored by the recursion
+	 */
+	long getNodesVisited();
+
+	/**
+	 * Children not explored because they are too far from the previous note
+	 */
+	long getNodesPrunedByGap();
+
+	/**
+	 * Children not explored because their note is not in the scale
+	 */
+	long getNodesPrunedByScale();
+
+	/**
+	 * Children not explored because no named chord can be found in their subtree, see {@link ReachabilityIndex}
+	 */
+	long getNodesPrunedByReachability();
+
+	/**
+	 * Nodes whose chord has a name, directly or through an inversion
+	 */
+	long getNamedNodes();
+
+	/**
+	 * Nodes whose chord has no name ("?")
+	 */
+	long getUnnamedNodes();
+
+	long getInversionLookups();
+
+	/**
+	 * Chords registered by the nodes, the same chord can be found many times
+	 */
+	long getChordsFound();
+
+	/**
+	 * Bytes written in the files, after compression
+	 */
+	long getBytesWritten();
+
+	/**
+	 * Indexed by root note
+	 */
+	long[] getNodesVisitedPerRoot();
+
+	/**
+	 * Indexed by root note
+	 */
+	long[] getChordsFoundPerRoot();
+
+	/**
+	 * Time spent in the subtree of each root note, in microseconds
+	 */
+	long[] getTimePerRootMicros();
+
+	/**
+	 * Number of root note subtrees by exploration time: entry n counts the times between 2^(n-1) and 2^n microseconds
+	 */
+	long[] getRootTimeHistogram();
+
+	void reset();
+}
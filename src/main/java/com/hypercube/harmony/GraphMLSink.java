@@ -0,0 +1,173 @@
+package com.hypercube.harmony;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * yEd GraphML: nodes first, then edges
+ *
+ * Edges are kept until the end of the graph, in memory or in a temporary file in streaming mode.
+ *
+ * @author hypercube software
+ *
+ */
+public class GraphMLSink extends TextGraphSink {
+	static Logger logger = Logger.getLogger(GraphMLSink.class.getName());
+
+	private class Edge {
+		public Edge(int index, String name, int from, int to, String color, boolean dashed) {
+			this.index = index;
+			this.from = from;
+			this.to = to;
+			this.name = name;
+			this.color = color;
+			this.dashed = dashed;
+		}
+
+		int index;
+		String name;
+		int from;
+		int to;
+		String color;
+		boolean dashed;
+	}
+
+	private List<Edge> edges = new ArrayList<Edge>();
+	private File edgesFile = null;
+	private FileChannel edgesChannel = null;
+	private PrintWriter edgesOut = null;
+
+	/**
+	 * @param streaming write the edges in a temporary file which is appended at the end,
+	 *                  instead of keeping them in memory. The output is the same
+	 * @param tempFolder where to put the edges in streaming mode, null for the default temporary folder
+	 */
+	public GraphMLSink(WritableByteChannel channel, boolean compressed, boolean streaming, File tempFolder) throws IOException {
+		super(channel, compressed);
+		if (streaming) {
+			edgesFile = File.createTempFile("edges", ".graphml", tempFolder);
+			edgesChannel = FileChannel.open(edgesFile.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+			edgesOut = openWriter(new BufferedOutputStream(Channels.newOutputStream(edgesChannel), OUTPUT_BUFFER_SIZE));
+		}
+	}
+
+	@Override
+	public void start() {
+		out.println("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>");
+		out.println("<graphml\r\n" + " xmlns=\"http://graphml.graphdrawing.org/xmlns\"\r\n"
+				+ " xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\"\r\n"
+				+ " xmlns:y=\"http://www.yworks.com/xml/graphml\"\r\n"
+				+ " xmlns:yed=\"http://www.yworks.com/xml/yed/3\"\r\n"
+				+ " xsi:schemaLocation=\"http://graphml.graphdrawing.org/xmlns http://www.yworks.com/xml/schema/graphml/1.1/ygraphml.xsd\">\r\n");
+		out.println("<key for=\"node\" id=\"d0\" yfiles.type=\"nodegraphics\"/>");
+		out.println("<key for=\"edge\" id=\"d1\" yfiles.type=\"edgegraphics\"/>");
+		out.println("<graph edgedefault=\"directed\" id=\"G\">");
+	}
+
+	@Override
+	public void end(String stopReason) {
+		for (Edge edge : edges) {
+			emitEdge(out, edge.index, edge.name, edge.from, edge.to, edge.color, edge.dashed);
+		}
+		edges.clear();
+		if (edgesOut != null) {
+			try {
+				edgesOut.flush();
+				append(edgesChannel);
+			} catch (IOException e) {
+				logger.log(Level.SEVERE,"Unexpected error",e);
+			} finally {
+				closeEdgesFile();
+			}
+		}
+		if (stopReason != null) {
+			out.print("<!-- incomplete: ");
+			out.print(stopReason);
+			out.println(" -->");
+		}
+		out.println("</graph>");
+		out.println("</graphml>");
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (edgesOut != null)
+			closeEdgesFile();
+		super.close();
+	}
+
+	private void closeEdgesFile() {
+		// closing the writer also close the channel
+		edgesOut.close();
+		edgesOut = null;
+		edgesChannel = null;
+		edgesFile.delete();
+		edgesFile = null;
+	}
+
+	@Override
+	public void node(int id, String name, String color) {
+		out.print("\t<node id=\"n");
+		out.print(id);
+		out.println("\">");
+		out.println("\t\t<data key=\"d0\">");
+		out.println("\t\t\t<y:ShapeNode>");/*
+											 * out.println("\t\t\t\t<y:Shape type=\"rectangle\"/>"); out.
+											 * println("\t\t\t\t<y:Geometry height=\"30.0\" width=\"30.0\" x=\"0.0\" y=\"0.0\"/>"
+											 * ); out.
+											 * println("\t\t\t\t<y:BorderStyle color=\"#000000\" type=\"line\" width=\"1.0\"/>"
+											 * );
+											 */
+		out.print("\t\t\t\t<y:Fill color=\"");
+		out.print(color);
+		out.println("\" transparent=\"false\"/>");
+		out.print("\t\t\t\t<y:NodeLabel>");
+		out.print(name);
+		out.println("</y:NodeLabel>");
+		out.println("\t\t\t</y:ShapeNode>");
+		out.println("\t\t</data>");
+		out.println("\t</node>");
+	}
+
+	@Override
+	public void edge(int index, int from, int to, String name, String color, boolean dashed) {
+		if (edgesOut != null)
+			emitEdge(edgesOut, index, name, from, to, color, dashed);
+		else
+			edges.add(new Edge(index, name, from, to, color, dashed));
+	}
+
+	private static void emitEdge(PrintWriter out, int index, String name, int from, int to, String color, boolean dashed) {
+		// ids have always been "e" followed by the index then "1": e01, e11, e21...
+		out.print("\t<edge id=\"e");
+		out.print(index);
+		out.print("1\" source=\"n");
+		out.print(from);
+		out.print("\" target=\"n");
+		out.print(to);
+		out.println("\">");
+		out.println("\t\t<data key=\"d1\">");
+		out.println("\t\t\t<PolyLineEdge>");
+		out.print("<y:LineStyle color=\"");
+		out.print(color);
+		out.print("\" type=\"");
+		out.print(dashed ? "dashed" : "line");
+		out.println("\" width=\"4.0\"/>");
+		out.print("\t\t\t\t<y:EdgeLabel alignment=\"center\" configuration=\"AutoFlippingLabel\">");
+		out.print(name);
+		out.println("</y:EdgeLabel>");
+		out.println("\t\t\t</PolyLineEdge>");
+		out.println("\t\t</data>");
+		out.println("\t</edge>");
+	}
+}
@@ -0,0 +1,76 @@
+package com.hypercube.harmony;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Receive the tree of chords built by {@link ChordGenerator}, one event per node and per edge, as they are found.
+ * Children are emitted before their parent, each node comes right after the edge from its parent (except the root).
+ *
+ * Errors while writing are reported by {@link #close()}, like a PrintWriter
+ *
+ * @author hypercube software
+ *
+ */
+public interface GraphSink extends Closeable {
+	/**
+	 * Output formats available for the generated files
+	 */
+	enum Format {
+		GRAPHML("graphml"), DOT("dot"), JSONL("jsonl"), CSV("csv");
+
+		private final String extension;
+
+		Format(String extension) {
+			this.extension = extension;
+		}
+
+		public String getExtension() {
+			return extension;
+		}
+
+		/**
+		 * @param compressed gzip the output
+		 * @param streaming for GraphML, see {@link GraphMLSink#GraphMLSink(WritableByteChannel, boolean, boolean, File)}
+		 * @param tempFolder for GraphML, see {@link GraphMLSink#GraphMLSink(WritableByteChannel, boolean, boolean, File)}
+		 */
+		public GraphSink create(WritableByteChannel channel, boolean compressed, boolean streaming, File tempFolder)
+				throws IOException {
+			switch (this) {
+			case DOT:
+				return new DotSink(channel, compressed);
+			case JSONL:
+				return new JsonLinesSink(channel, compressed);
+			case CSV:
+				return new CsvSink(channel, compressed);
+			default:
+				return new GraphMLSink(channel, compressed, streaming, tempFolder);
+			}
+		}
+	}
+
+	/**
+	 * Called before the first node
+	 */
+	void start();
+
+	/**
+	 * @param label name of the node, can contain line breaks
+	 * @param color fill color like "#ff6600"
+	 */
+	void node(int id, String label, String color);
+
+	/**
+	 * @param index number of the edge, starting from 0
+	 */
+	void edge(int index, int from, int to, String label, String color, boolean dashed);
+
+	/**
+	 * Called after the last node, then the sink is closed
+	 *
+	 * @param stopReason null if the graph is complete, otherwise why the generation was stopped
+	 */
+	void end(String stopReason);
+}
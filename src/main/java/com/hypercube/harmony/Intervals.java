@@ -1,7 +1,6 @@
 package com.hypercube.harmony;
 
 import java.util.logging.Logger;
-import java.util.stream.Collectors;
 
 public class Intervals {
 	static Logger logger = Logger.getLogger(Intervals.class.getName());
@@ -126,174 +125,162 @@ public class Intervals {
 				&& getInterval(interval2).equals("M3");
 	}
 
+	/**
+	 * Version of the chord dictionary below, increment it when the dictionary changes
+	 * so the incremental generation rewrites the files, see {@link ChordManifest}
+	 */
+	static final int CHORD_DICTIONARY_VERSION = 1;
+
+	/**
+	 * Chord dictionary, one line per chord type: the type followed by the intervals (except the root)
+	 * https://www.scales-chords.com/chord/piano/C#tweak_this_chord
+	 * When two lines share the same intervals, the first one wins
+	 */
+	static private String[][] chordTypes = new String[][] {
+			// COUMPOUNT CHORD 7 notes
+			{ "min13", "m3", "P5", "m7", "M9", "P11", "M13" }, // minor
+			{ "maj13", "M3", "P5", "M7", "M9", "P11", "M13" }, // major
+			{ "dom13", "M3", "P5", "m7", "M9", "P11", "M13" },
+			{ "dom13(b5)", "M3", "Tritone", "m7", "M9", "P11", "M13" },
+			{ "dom13(#5)", "M3", "m6", "m7", "M9", "P11", "M13" },
+			// COUMPOUNT CHORD 6 notes
+			{ "min11", "m3", "P5", "m7", "M9", "P11" }, // minor
+			{ "min11(b5)", "m3", "Tritone", "m7", "M9", "P11" }, // pas sur
+			{ "maj11", "M3", "P5", "M7", "M9", "P11" }, // major
+			{ "dom11", "M3", "P5", "m7", "M9", "P11" },
+			{ "dom11(b5)", "M3", "Tritone", "m7", "M9", "P11" },
+			{ "dom11(#5)", "M3", "m6", "m7", "M9", "P11" },
+			// COUMPOUNT CHORD 5 notes
+			{ "dom9", "M3", "P5", "m7", "M9" },
+			{ "maj9", "M3", "P5", "M7", "M9" },
+			{ "maj7(#9)", "M3", "P5", "M7", "m10" },
+			{ "maj7(b9)", "M3", "P5", "M7", "m9" },
+			{ "m9", "m3", "P5", "m7", "M9" }, // minor
+			{ "9#7", "M2", "M3", "P5", "m7" },
+			{ "maj7(#9)", "m3", "M3", "P5", "M7" },
+			{ "7(b9)", "m2", "M3", "P5", "M7" },
+			{ "dom7(b9)", "M3", "P5", "m7", "m9" },
+			{ "dom7(#9)", "M3", "P5", "m7", "m10" },
+			{ "dom9(b5)", "M3", "Tritone", "m7", "M9" },
+			{ "dom7(b5b9)", "M3", "Tritone", "m7", "m9" },
+			{ "dom9(#5)", "M3", "m6", "m7", "M9" },
+			{ "dom9(#5b9)", "M3", "m6", "m7", "m9" },
+			{ "dom7(#5#9)", "M3", "m6", "m7", "m10" },
+			{ "m(maj9)", "m3", "P5", "M7", "M9" },
+			{ "dim(maj9)", "m3", "Tritone", "M7", "M9" },
+			{ "m(maj9)#5", "m3", "m6", "M7", "M9" },
+			{ "m7(b9)add(7)", "m3", "m6", "M7", "m9" },
+			{ "m9#5", "m3", "m6", "m7", "M9" },
+			// 4 notes
+			{ "m7", "m3", "P5", "m7" },
+			{ "m+7", "m3", "P5", "M7" },
+			{ "7sus4", "P4", "P5", "m7" },
+			{ "7sus2", "M2", "P5", "m7" },
+			{ "maj7", "M3", "P5", "M7" },
+			{ "maj7#5", "M3", "m6", "M7" },
+			{ "maj7sus4", "P4", "P5", "M7" },
+			{ "maj7sus2", "M2", "P5", "M7" },
+			{ "dom7", "M3", "P5", "m7" },
+			{ "dim7", "m3", "Tritone", "M6" },
+			{ "7b5", "M3", "Tritone", "m7" },
+			{ "7#5", "M3", "m6", "m7" },
+			{ "m7b5", "m3", "Tritone", "m7" },
+			{ "m7#5", "m3", "m6", "m7" },
+			{ "maj7b5", "M3", "Tritone", "M7" },
+			{ "m6#5", "m3", "m6", "M6" },
+			{ "6#5", "M3", "m6", "M6" },
+			{ " Lydian Maj7", "Tritone", "P5", "M7" },
+			{ " Lydian b7", "Tritone", "P5", "m7" },
+			{ " Phrygian Maj7", "m2", "P5", "M7" },
+			{ " Phrygian b7", "m2", "P5", "m7" },
+			{ " Locrian Maj7", "P4", "Tritone", "M7" },
+			{ " Locrian b7", "P4", "Tritone", "m7" },
+			// 3 notes
+			{ "sus2", "M2", "P5" },
+			{ "sus4", "P4", "P5" },
+			{ " Lydian", "Tritone", "P5" },
+			{ " Phrygian", "m2", "P5" },
+			{ " Locrian", "P4", "Tritone" },
+			{ "", "M3", "P5" }, // major
+			{ "m", "m3", "P5" }, // minor
+			{ "", "m3", "Tritone" }, // diminished, both fifth and second are diminished
+			{ "(b5)", "M3", "Tritone" }, // flat fifth only, the second is major
+			{ "+", "M3", "m6" }, // or (#5)
+			{ "?", "m3", "m6" },
+			{ "?", "P4", "m6" },
+			{ "?", "P4", "M6" },
+			{ "6", "M3", "M6" },
+			{ "m6", "m3", "M6" },
+			{ "sus4(b5)", "P4", "Tritone" },
+	};
+	/**
+	 * Open addressing hash table built from chordTypes
+	 * The key is the mask of the interval codes used by the chord (bit n = intervalCodes[n]), the root excluded
+	 */
+	static private final int chordTypeTableBits = 8;
+	static private int[] chordTypeKeys = new int[1<<chordTypeTableBits];
+	static private String[] chordTypeValues = new String[1<<chordTypeTableBits];
+
+	static {
+		for (String[] chordType : chordTypes)
+		{
+			int key = 0;
+			for (int i=1;i<chordType.length;i++)
+			{
+				key |= 1<<getInterval(chordType[i]);
+			}
+			int slot = chordTypeSlot(key);
+			if (chordTypeKeys[slot]==0)
+			{
+				chordTypeKeys[slot] = key;
+				chordTypeValues[slot] = chordType[0];
+			}
+		}
+	}
+	/**
+	 * @return the slot of the key, or the empty slot where it should be inserted
+	 */
+	private static int chordTypeSlot(int key) {
+		int mask = chordTypeKeys.length-1;
+		int slot = (key * 0x9E3779B9) >>> (32-chordTypeTableBits);
+		while (chordTypeKeys[slot]!=0 && chordTypeKeys[slot]!=key)
+		{
+			slot = (slot+1) & mask;
+		}
+		return slot;
+	}
+
 	public static String getChordType(ChordFormula cf) {
-		String[] intervals = cf.getIntervals().stream().map(e -> intervalCodes[e % intervalCodes.length])
-				.collect(Collectors.toList()).toArray(new String[0]);
-		//https://www.scales-chords.com/chord/piano/C#tweak_this_chord
-		int size = intervals.length;
-		String type = "";
-		if (size == 7) { // COUMPOUNT CHORD
-			if (intervals[1].equals("m3") && intervals[2].equals("P5") && intervals[3].equals("m7") && intervals[4].equals("M9") && intervals[5].equals("P11") && intervals[6].equals("M13"))
-				type = "min13";// minor
-			else if (intervals[1].equals("M3") && intervals[2].equals("P5") && intervals[3].equals("M7") && intervals[4].equals("M9") && intervals[5].equals("P11") && intervals[6].equals("M13"))
-				type = "maj13";// major
-			else if (intervals[1].equals("M3") && intervals[2].equals("P5") && intervals[3].equals("m7") && intervals[4].equals("M9") && intervals[5].equals("P11")&& intervals[6].equals("M13"))
-				type = "dom13";
-			else if (intervals[1].equals("M3") && intervals[2].equals("Tritone") && intervals[3].equals("m7") && intervals[4].equals("M9") && intervals[5].equals("P11")&& intervals[6].equals("M13"))
-				type = "dom13(b5)";
-			else if (intervals[1].equals("M3") && intervals[2].equals("m6") && intervals[3].equals("m7") && intervals[4].equals("M9") && intervals[5].equals("P11")&& intervals[6].equals("M13"))
-				type = "dom13(#5)";			
-			else
-				type = "?";
-		} 
-		else if (size == 6) { // COUMPOUNT CHORD
-			if (intervals[1].equals("m3") && intervals[2].equals("P5") && intervals[3].equals("m7") && intervals[4].equals("M9") && intervals[5].equals("P11"))
-				type = "min11";// minor
-			else if (intervals[1].equals("m3") && intervals[2].equals("Tritone") && intervals[3].equals("m7") && intervals[4].equals("M9") && intervals[5].equals("P11"))
-				type = "min11(b5)"; // pas sur
-			else if (intervals[1].equals("M3") && intervals[2].equals("P5") && intervals[3].equals("M7") && intervals[4].equals("M9") && intervals[5].equals("P11"))
-				type = "maj11";// major
-			else if (intervals[1].equals("M3") && intervals[2].equals("P5") && intervals[3].equals("m7") && intervals[4].equals("M9") && intervals[5].equals("P11"))
-				type = "dom11";
-			else if (intervals[1].equals("M3") && intervals[2].equals("Tritone") && intervals[3].equals("m7") && intervals[4].equals("M9") && intervals[5].equals("P11"))
-				type = "dom11(b5)";
-			else if (intervals[1].equals("M3") && intervals[2].equals("m6") && intervals[3].equals("m7") && intervals[4].equals("M9") && intervals[5].equals("P11"))
-				type = "dom11(#5)";
-			else
-				type = "?";
-		} else if (size == 5) { // COUMPOUNT CHORD
-			if (intervals[1].equals("M3") && intervals[2].equals("P5") && intervals[3].equals("m7") && intervals[4].equals("M9"))
-				type = "dom9";
-			else if (intervals[1].equals("M3") && intervals[2].equals("P5") && intervals[3].equals("M7") && intervals[4].equals("M9"))
-				type = "maj9"; 
-			else if (intervals[1].equals("M3") && intervals[2].equals("P5") && intervals[3].equals("M7") && intervals[4].equals("m10"))
-				type = "maj7(#9)"; 
-			else if (intervals[1].equals("M3") && intervals[2].equals("P5") && intervals[3].equals("M7") && intervals[4].equals("m9"))
-				type = "maj7(b9)";
-			else if (intervals[1].equals("m3") && intervals[2].equals("P5") && intervals[3].equals("m7") && intervals[4].equals("M9"))
-				type = "m9"; // minor
-			else if (intervals[1].equals("M2") && intervals[2].equals("M3") && intervals[3].equals("P5") && intervals[4].equals("m7"))
-				type = "9#7";
-			else if (intervals[1].equals("m3") && intervals[2].equals("M3") && intervals[3].equals("P5") && intervals[4].equals("M7"))
-				type = "maj7(#9)";
-			else if (intervals[1].equals("m2") && intervals[2].equals("M3") && intervals[3].equals("P5") && intervals[4].equals("M7"))
-				type = "7(b9)";
-			else if (intervals[1].equals("M3") && intervals[2].equals("P5") && intervals[3].equals("m7") && intervals[4].equals("m9"))
-				type = "dom7(b9)";
-			else if (intervals[1].equals("M3") && intervals[2].equals("P5") && intervals[3].equals("m7") && intervals[4].equals("m10"))
-				type = "dom7(#9)";
-			else if (intervals[1].equals("M3") && intervals[2].equals("Tritone") && intervals[3].equals("m7") && intervals[4].equals("M9"))
-				type = "dom9(b5)";
-			else if (intervals[1].equals("M3") && intervals[2].equals("Tritone") && intervals[3].equals("m7") && intervals[4].equals("m9"))
-				type = "dom7(b5b9)";
-			else if (intervals[1].equals("M3") && intervals[2].equals("m6") && intervals[3].equals("m7") && intervals[4].equals("M9"))
-				type = "dom9(#5)";
-			else if (intervals[1].equals("M3") && intervals[2].equals("m6") && intervals[3].equals("m7") && intervals[4].equals("m9"))
-				type = "dom9(#5b9)";
-			else if (intervals[1].equals("M3") && intervals[2].equals("m6") && intervals[3].equals("m7") && intervals[4].equals("m10"))
-				type = "dom7(#5#9)";
-			else if (intervals[1].equals("m3") && intervals[2].equals("P5") && intervals[3].equals("M7") && intervals[4].equals("M9"))
-				type = "m(maj9)";
-			else if (intervals[1].equals("m3") && intervals[2].equals("Tritone") && intervals[3].equals("M7") && intervals[4].equals("M9"))
-				type = "dim(maj9)";
-			else if (intervals[1].equals("m3") && intervals[2].equals("m6") && intervals[3].equals("M7") && intervals[4].equals("M9"))
-				type = "m(maj9)#5";
-			else if (intervals[1].equals("m3") && intervals[2].equals("m6") && intervals[3].equals("M7") && intervals[4].equals("m9"))
-				type = "m7(b9)add(7)";
-			else if (intervals[1].equals("m3") && intervals[2].equals("m6") && intervals[3].equals("m7") && intervals[4].equals("M9"))
-				type = "m9#5";			
-			else 
-				type = "?";
-		} else if (size == 4) {
-			if (intervals[1].equals("m3") && intervals[2].equals("P5") && intervals[3].equals("m7"))
-				type = "m7";
-			else if (intervals[1].equals("m3") && intervals[2].equals("P5") && intervals[3].equals("M7"))
-				type = "m+7";
-			else if (intervals[1].equals("P4") && intervals[2].equals("P5") && intervals[3].equals("m7"))
-				type = "7sus4";
-			else if (intervals[1].equals("M2") && intervals[2].equals("P5") && intervals[3].equals("m7"))
-				type = "7sus2";
-			else if (intervals[1].equals("M3") && intervals[2].equals("P5") && intervals[3].equals("M7"))
-				type = "maj7";
-			else if (intervals[1].equals("M3") && intervals[2].equals("m6") && intervals[3].equals("M7"))
-				type = "maj7#5";
-			else if (intervals[1].equals("P4") && intervals[2].equals("P5") && intervals[3].equals("M7"))
-				type = "maj7sus4";
-			else if (intervals[1].equals("M2") && intervals[2].equals("P5") && intervals[3].equals("M7"))
-				type = "maj7sus2";
-			else if (intervals[1].equals("M3") && intervals[2].equals("P5") && intervals[3].equals("m7"))
-				type = "dom7";
-			else if (intervals[1].equals("m3") && intervals[2].equals("Tritone") && intervals[3].equals("M6"))
-				type = "dim7";
-			else if (intervals[1].equals("M3") && intervals[2].equals("Tritone") && intervals[3].equals("m7"))
-				type = "7b5";
-			else if (intervals[1].equals("M3") && intervals[2].equals("m6") && intervals[3].equals("m7"))
-				type = "7#5";
-			else if (intervals[1].equals("m3") && intervals[2].equals("Tritone") && intervals[3].equals("m7"))
-				type = "m7b5";
-			else if (intervals[1].equals("m3") && intervals[2].equals("m6") && intervals[3].equals("m7"))
-				type = "m7#5";
-			else if (intervals[1].equals("M3") && intervals[2].equals("Tritone") && intervals[3].equals("M7"))
-				type = "maj7b5";
-			else if (intervals[1].equals("m3") && intervals[2].equals("m6") && intervals[3].equals("M6"))
-				type = "m6#5";
-			else if (intervals[1].equals("M3") && intervals[2].equals("m6") && intervals[3].equals("M6"))
-				type = "6#5";
-			else if (intervals[1].equals("Tritone") && intervals[2].equals("P5") && intervals[3].equals("M7"))
-				type = " Lydian Maj7";
-			else if (intervals[1].equals("Tritone") && intervals[2].equals("P5") && intervals[3].equals("m7"))
-				type = " Lydian b7";
-			else if (intervals[1].equals("m2") && intervals[2].equals("P5") && intervals[3].equals("M7"))
-				type = " Phrygian Maj7";
-			else if (intervals[1].equals("m2") && intervals[2].equals("P5") && intervals[3].equals("m7"))
-				type = " Phrygian b7";
-			else if (intervals[1].equals("P4") && intervals[2].equals("Tritone") && intervals[3].equals("M7"))
-				type = " Locrian Maj7";
-			else if (intervals[1].equals("P4") && intervals[2].equals("Tritone") && intervals[3].equals("m7"))
-				type = " Locrian b7";
-			else
-				type = "?";
-		} else if (size == 3) {
-			if (intervals[1].equals("M2") && intervals[2].equals("P5"))
-				type = "sus2";
-			else if (intervals[1].equals("P4") && intervals[2].equals("P5"))
-				type = "sus4";
-			else if (intervals[1].equals("Tritone") && intervals[2].equals("P5"))
-				type = " Lydian";
-			else if (intervals[1].equals("m2") && intervals[2].equals("P5"))
-				type = " Phrygian";
-			else if (intervals[1].equals("P4") && intervals[2].equals("Tritone"))
-				type = " Locrian";
-			else if (intervals[1].equals("M3") && intervals[2].equals("P5"))
-				type = ""; // major
-			else if (intervals[1].equals("m3") && intervals[2].equals("P5"))
-				type = "m"; // minor
-			else if (intervals[1].equals("m3") && intervals[2].equals("Tritone"))
-				type = ""; // diminished, both fifth and second are diminished
-			else if (intervals[1].equals("M3") && intervals[2].equals("Tritone"))
-				type += "(b5)"; // flat fifth only, the second is major
-			else if (intervals[1].equals("M3") && intervals[2].equals("m6"))
-				type = "+"; // or (#5)
-			else if (intervals[1].equals("m3") && intervals[2].equals("m6"))
-				type = "?";
-			else if (intervals[1].equals("P4") && intervals[2].equals("m6"))
-				type = "?";
-			else if (intervals[1].equals("P4") && intervals[2].equals("M6"))
-				type = "?";
-			else if (intervals[1].equals("M3") && intervals[2].equals("M6"))
-				type = "6";
-			else if (intervals[1].equals("m3") && intervals[2].equals("M6"))
-				type = "m6";
-			else if (intervals[1].equals("P4") && intervals[2].equals("Tritone"))
-				type = "sus4(b5)";			
-			else
-				type = "?";
-				
-		} else if (size == 2)
+		return getChordType(cf.getOffsets(), cf.getSize());
+	}
+	/**
+	 * Same as {@link #getChordType(ChordFormula)} on the first "size" entries of a primitive array
+	 * The intervals must be sorted and start with 0
+	 */
+	public static String getChordType(int[] intervals, int size) {
+		if (size == 2)
+		{
+			return intervalCodes[intervals[1] % intervalCodes.length];
+		}
+		else if (size < 3 || size > 7)
+		{
+			return "";
+		}
+		// The dictionary only contains intervals in ascending order, so we can reduce the chord to a set of intervals
+		int key = 0;
+		int prevCode = -1;
+		for (int i=1;i<size;i++)
 		{
-			type = intervals[1];
+			int code = intervals[i] % intervalCodes.length;
+			if (code<=prevCode)
+				return "?";
+			key |= 1<<code;
+			prevCode = code;
 		}
-		return type;
+		int slot = chordTypeSlot(key);
+		if (chordTypeKeys[slot]==0)
+			return "?";
+		return chordTypeValues[slot];
 	}
 	
 }
@@ -0,0 +1,235 @@
+package com.hypercube.harmony;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Inversions of every interval set explored by {@link ChordGenerator}, computed once
+ *
+ * A chord without name can be the inversion of a known chord: we invert it until we found the root chord.
+ * This search is done here for all the interval sets at once, so it becomes a single lookup.
+ * Interval sets outside of the generator limits are resolved on the fly with the same algorithm.
+ *
+ * @author hypercube software
+ *
+ */
+public class InversionIndex {
+	/**
+	 * How to go from a chord to its root position
+	 */
+	public static class Inversion {
+		private final int inversion;
+		private final int rootInterval;
+		private final ChordFormula rootFormula;
+		private final ChordFormula invertedFormula;
+		private final String type;
+
+		private Inversion(int inversion, int rootInterval, ChordFormula rootFormula, ChordFormula invertedFormula) {
+			this.inversion = inversion;
+			this.rootInterval = rootInterval;
+			this.rootFormula = rootFormula;
+			this.invertedFormula = invertedFormula;
+			this.type = Intervals.getChordType(rootFormula);
+		}
+		/**
+		 * @return inversion to apply on the chord to get its root position
+		 */
+		public int getInversion() {
+			return inversion;
+		}
+		/**
+		 * @return inversion to apply on the root position to get back the chord
+		 */
+		public int getRootInversion() {
+			return rootFormula.getSize() - inversion;
+		}
+		/**
+		 * @return interval between the bass of the chord and the root note
+		 */
+		public int getRootInterval() {
+			return rootInterval;
+		}
+		public ChordFormula getRootFormula() {
+			return rootFormula;
+		}
+		/**
+		 * @return formula of the inverted chord built from the root position, see {@link InvertedChord#forge(Chord, int)}
+		 */
+		public ChordFormula getInvertedFormula() {
+			return invertedFormula;
+		}
+		/**
+		 * @return type of the root position
+		 */
+		public String getType() {
+			return type;
+		}
+	}
+
+	/**
+	 * Open addressing tables, keys are interval masks (see {@link ChordFormula#getIntervalMask()})
+	 * Only chords having a named inversion are stored
+	 */
+	private static class Holder {
+		static long[] keys;
+		static Inversion[] values;
+		/**
+		 * Inverted formulas by root formula and inversion
+		 */
+		static long[] invertedKeys;
+		static ChordFormula[] invertedValues;
+
+		static {
+			List<Inversion> inversions = new ArrayList<Inversion>();
+			List<ChordFormula> formulas = new ArrayList<ChordFormula>();
+			try {
+				int[] notes = new int[ChordGenerator.MAX_NOTES];
+				collect(notes, 1, formulas, inversions);
+			} catch (Exception e) {
+				throw new Error("Unable to build the inversion index", e);
+			}
+			int capacity = Integer.highestOneBit(Math.max(inversions.size(), 1) * 4);
+			keys = new long[capacity];
+			values = new Inversion[capacity];
+			invertedKeys = new long[capacity];
+			invertedValues = new ChordFormula[capacity];
+			for (int i = 0; i < inversions.size(); i++) {
+				Inversion inversion = inversions.get(i);
+				int slot = slot(keys, formulas.get(i).getIntervalMask());
+				keys[slot] = formulas.get(i).getIntervalMask();
+				values[slot] = inversion;
+				long invertedKey = invertedKey(inversion.getRootFormula(), inversion.getRootInversion());
+				if (invertedKey != 0) {
+					slot = slot(invertedKeys, invertedKey);
+					invertedKeys[slot] = invertedKey;
+					invertedValues[slot] = inversion.getInvertedFormula();
+				}
+			}
+		}
+
+		/**
+		 * Walk all the interval sets the generator can explore
+		 */
+		private static void collect(int[] notes, int size, List<ChordFormula> formulas, List<Inversion> inversions)
+				throws Exception {
+			if (size >= 2 && ChordFormula.isValid(notes, size)) {
+				ChordFormula formula = new ChordFormula(notes, size);
+				Inversion inversion = compute(formula);
+				if (inversion != null) {
+					formulas.add(formula);
+					inversions.add(inversion);
+				}
+			}
+			if (size == ChordGenerator.MAX_NOTES)
+				return;
+			int last = notes[size - 1];
+			for (int i = last + 1; i <= ChordGenerator.MAX_INTERVAL && i - last <= ChordGenerator.MAX_GAP; i++) {
+				notes[size] = i;
+				collect(notes, size + 1, formulas, inversions);
+			}
+		}
+	}
+
+	/**
+	 * @return the slot of the key, or the empty slot where it should be inserted
+	 */
+	private static int slot(long[] keys, long key) {
+		int mask = keys.length - 1;
+		int slot = (int) ((key * 0x9E3779B97F4A7C15L) >>> 40) & mask;
+		while (keys[slot] != 0 && keys[slot] != key) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	private static long invertedKey(ChordFormula formula, int inversion) {
+		long key = formula.getIntervalMask();
+		if (key == 0 || (key >>> 56) != 0 || inversion >= 256)
+			return 0;
+		return key | ((long) inversion << 56);
+	}
+
+	/**
+	 * true if the formula is in the space explored by the generator
+	 */
+	private static boolean isIndexed(ChordFormula formula) {
+		int size = formula.getSize();
+		if (size > ChordGenerator.MAX_NOTES || formula.getInterval(size - 1) > ChordGenerator.MAX_INTERVAL)
+			return false;
+		for (int i = 1; i < size; i++) {
+			if (formula.getInterval(i) - formula.getInterval(i - 1) > ChordGenerator.MAX_GAP)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Try to found a chord with a valid name given a chord without name
+	 * We invert chord until we found the root chord
+	 * Inversions have as many notes as the chord, there is no name beyond the dictionary
+	 */
+	private static Inversion compute(ChordFormula formula) throws Exception {
+		int size = formula.getSize();
+		if (size > ChordGenerator.MAX_NOTES)
+			return null;
+		for (int inversion = 1; inversion < size; inversion++) {
+			ChordFormula icf = InvertedChord.invertedFormula(formula, inversion);
+			if (icf == null)
+				continue;
+			String iname = Intervals.getChordType(icf);
+			if (!iname.contains("?")) {
+				ChordFormula invertedFormula = InvertedChord.invertedFormula(icf, size - inversion);
+				if (invertedFormula == null)
+					return null;
+				return new Inversion(inversion, formula.getInterval(inversion), ChordRegistry.intern(icf),
+						ChordRegistry.intern(invertedFormula));
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return how to reach the first named inversion of a chord, null if there is none
+	 */
+	public static Inversion get(ChordFormula formula) throws Exception {
+		if (!isIndexed(formula))
+			return compute(formula);
+		int slot = slot(Holder.keys, formula.getIntervalMask());
+		return Holder.values[slot];
+	}
+
+	/**
+	 * Allocation free version of {@link #get(ChordFormula)} for the interval sets explored by the generator
+	 *
+	 * @param intervalMask see {@link ChordFormula#getIntervalMask()}
+	 */
+	static Inversion get(long intervalMask) {
+		return Holder.values[slot(Holder.keys, intervalMask)];
+	}
+
+	/**
+	 * Same as {@link #get(long)} for any notes, the interval sets out of the index are computed
+	 * (see {@link GeneratorConfig#isIndexed()})
+	 */
+	static Inversion get(int[] notes, int size, int intervalMask) throws Exception {
+		boolean indexed = size <= ChordGenerator.MAX_NOTES && notes[size - 1] <= ChordGenerator.MAX_INTERVAL;
+		for (int i = 1; i < size && indexed; i++) {
+			indexed = notes[i] - notes[i - 1] <= ChordGenerator.MAX_GAP;
+		}
+		return indexed ? get(intervalMask) : compute(new ChordFormula(notes, size));
+	}
+
+	/**
+	 * Same as {@link InvertedChord#invertedFormula(ChordFormula, int)}, precomputed for the root positions
+	 * found in the index
+	 */
+	public static ChordFormula invert(ChordFormula formula, int inversion) throws Exception {
+		long key = invertedKey(formula, inversion);
+		if (key != 0) {
+			int slot = slot(Holder.invertedKeys, key);
+			if (Holder.invertedKeys[slot] != 0)
+				return Holder.invertedValues[slot];
+		}
+		return InvertedChord.invertedFormula(formula, inversion);
+	}
+}
@@ -4,10 +4,14 @@ public class InvertedChord extends Chord {
 
 	private Chord baseChord;
 	private int inversion;
+	private String chordName;
 	
 	public Chord getBaseChord() {
 		return baseChord;
 	}
+	public int getInversion() {
+		return inversion;
+	}
 	
 	public static ChordFormula invertedFormula(ChordFormula formula,int inversion) throws Exception
 	{
@@ -17,11 +21,11 @@ public class InvertedChord extends Chord {
 		// {c,d,a,b} inv 2
 		// {d,a,b,c} inv 3
 
-		Integer[] newFormula = new Integer[formula.getIntervals().size()];
+		int[] newFormula = new int[formula.getSize()];
 		// rotate to the right the list by "inversion" steps
 		// {a,b,c,d} = {b,c,d,a}
 		for (int i = 0; i < newFormula.length; i++) {
-			newFormula[i] = formula.getIntervals().get((i + inversion) % formula.getIntervals().size());
+			newFormula[i] = formula.getInterval((i + inversion) % newFormula.length);
 			
 		}
 		// this formula is tricky to understand.
@@ -42,21 +46,27 @@ public class InvertedChord extends Chord {
 			newFormula[i] -= reduce * 12;
 			
 		}
-		if (!ChordFormula.isValid(newFormula))
+		if (!ChordFormula.isValid(newFormula, newFormula.length))
 			return null;
-		return new ChordFormula(newFormula);
+		return new ChordFormula(newFormula, newFormula.length);
 	}
 	public static InvertedChord forge(Chord baseChord,int inversion) throws Exception
 	{
 		if (baseChord instanceof InvertedChord)
 			throw new Exception("Cannot invert an inverted chord");
-		ChordFormula invertedFormula = invertedFormula(baseChord.getFormula(),inversion);
+		return forge(baseChord, inversion, InversionIndex.invert(baseChord.getFormula(),inversion));
+	}
+	/**
+	 * Forge an inverted chord whose formula is already known
+	 */
+	static InvertedChord forge(Chord baseChord,int inversion,ChordFormula invertedFormula) throws Exception
+	{
 		if (invertedFormula==null)
 			return null;
 		else
 			return new InvertedChord(invertedFormula,baseChord, inversion);
 	}
-	private InvertedChord(ChordFormula invertedFormula,Chord baseChord,int inversion) throws Exception {
+	private InvertedChord(ChordFormula invertedFormula,Chord baseChord,int inversion) {
 		super(invertedFormula, baseChord.getOffsets().get(inversion));
 		this.baseChord = baseChord;
 		this.inversion = inversion;
@@ -64,7 +74,25 @@ public class InvertedChord extends Chord {
 	}
 	@Override
 	public String getChordName() {
-		return baseChord.getChordName()+"/"+Intervals.getSharpNote(getOffsets().get(0));
+		if (chordName==null)
+		{
+			chordName = baseChord.getChordName()+"/"+Intervals.getSharpNote(getOffsets().get(0));
+		}
+		return chordName;
+	}
+	@Override
+	public void setScale(Scale scale) {
+		super.setScale(scale);
+		this.chordName = null;
+	}
+	/**
+	 * @return a copy of the inverted chord and of its base chord, named with the notes of the scale
+	 */
+	@Override
+	public InvertedChord withScale(Scale scale) {
+		InvertedChord chord = new InvertedChord(getFormula(), baseChord.withScale(scale), inversion);
+		chord.setScale(scale);
+		return chord;
 	}
 	@Override
 	public String getType() {
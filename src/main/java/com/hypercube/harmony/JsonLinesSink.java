@@ -0,0 +1,87 @@
+package com.hypercube.harmony;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * JSON Lines, one object per node or edge:
+ * {"type":"node","id":2,"label":"P1\nC","color":"#ffcc00"}
+ * {"type":"edge","source":1,"target":2,"label":"P1","color":"#000000","dashed":false}
+ * and a last line if the generation was stopped: {"type":"incomplete","reason":"cancelled"}
+ *
+ * @author hypercube software
+ *
+ */
+public class JsonLinesSink extends TextGraphSink {
+
+	public JsonLinesSink(WritableByteChannel channel, boolean compressed) throws IOException {
+		super(channel, compressed);
+	}
+
+	@Override
+	public void start() {
+	}
+
+	@Override
+	public void node(int id, String label, String color) {
+		out.print("{\"type\":\"node\",\"id\":");
+		out.print(id);
+		out.print(",\"label\":");
+		printString(label);
+		out.print(",\"color\":");
+		printString(color);
+		out.print("}\n");
+	}
+
+	@Override
+	public void edge(int index, int from, int to, String label, String color, boolean dashed) {
+		out.print("{\"type\":\"edge\",\"source\":");
+		out.print(from);
+		out.print(",\"target\":");
+		out.print(to);
+		out.print(",\"label\":");
+		printString(label);
+		out.print(",\"color\":");
+		printString(color);
+		out.print(dashed ? ",\"dashed\":true}\n" : ",\"dashed\":false}\n");
+	}
+
+	@Override
+	public void end(String stopReason) {
+		if (stopReason != null) {
+			out.print("{\"type\":\"incomplete\",\"reason\":");
+			printString(stopReason);
+			out.print("}\n");
+		}
+	}
+
+	private void printString(String value) {
+		out.print('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+			case '"':
+				out.print("\\\"");
+				break;
+			case '\\':
+				out.print("\\\\");
+				break;
+			case '\n':
+				out.print("\\n");
+				break;
+			case '\r':
+				out.print("\\r");
+				break;
+			case '\t':
+				out.print("\\t");
+				break;
+			default:
+				if (c < 0x20)
+					out.print(String.format("\\u%04x", (int) c));
+				else
+					out.print(c);
+			}
+		}
+		out.print('"');
+	}
+}
@@ -0,0 +1,140 @@
+package com.hypercube.harmony;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.logging.Logger;
+
+import javax.sound.midi.MetaMessage;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.Sequencer;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Track;
+
+/**
+ * Replay a Standard MIDI File through the software sequencer into a {@link ChordReceiver},
+ * and report the recognition latency: time spent in {@link ChordReceiver#send} when a chord is published,
+ * listeners included.
+ *
+ * The sequencer is not connected to any synthesizer, no MIDI or audio hardware is needed.
+ *
+ * usage: MidiReplay [file.mid [tempo factor]]
+ * Without file, a short chord progression is played.
+ *
+ * @author hypercube software
+ *
+ */
+public class MidiReplay {
+	static Logger logger = Logger.getLogger(MidiReplay.class.getName());
+	private static final int END_OF_TRACK = 0x2F;
+
+	private final ChordReceiver chordReceiver = new ChordReceiver();
+	private long[] latencies = new long[1024];
+	private int nbLatencies;
+	private int nbMessages;
+	private boolean published;
+
+	public static void main(String[] args) throws Exception {
+		ChordGenerator.initLogs();
+		Sequence sequence = args.length > 0 ? MidiSystem.getSequence(new File(args[0])) : createDemoSequence();
+		float tempoFactor = args.length > 1 ? Float.parseFloat(args[1]) : 1;
+		MidiReplay replay = new MidiReplay();
+		replay.play(sequence, tempoFactor);
+		logger.info(replay.getReport());
+	}
+
+	public MidiReplay() {
+		chordReceiver.addListener((chords, mask, bass, timeStamp) -> published = true);
+	}
+
+	public ChordReceiver getChordReceiver() {
+		return chordReceiver;
+	}
+
+	/**
+	 * Play the sequence in real time, return when it is finished
+	 */
+	public void play(Sequence sequence, float tempoFactor) throws Exception {
+		Sequencer sequencer = MidiSystem.getSequencer(false);
+		CountDownLatch end = new CountDownLatch(1);
+		try {
+			sequencer.open();
+			sequencer.setSequence(sequence);
+			sequencer.setTempoFactor(tempoFactor);
+			sequencer.addMetaEventListener(meta -> {
+				if (meta.getType() == END_OF_TRACK)
+					end.countDown();
+			});
+			sequencer.getTransmitter().setReceiver(new Receiver() {
+				@Override
+				public void send(MidiMessage message, long timeStamp) {
+					measure(message, timeStamp);
+				}
+
+				@Override
+				public void close() {
+				}
+			});
+			sequencer.start();
+			end.await();
+		} finally {
+			sequencer.close();
+		}
+	}
+
+	private void measure(MidiMessage message, long timeStamp) {
+		published = false;
+		long start = System.nanoTime();
+		chordReceiver.send(message, timeStamp);
+		long latency = System.nanoTime() - start;
+		nbMessages++;
+		if (published) {
+			if (nbLatencies == latencies.length)
+				latencies = Arrays.copyOf(latencies, nbLatencies * 2);
+			latencies[nbLatencies++] = latency;
+		}
+	}
+
+	/**
+	 * @return number of messages, number of chords published and latency percentiles in microseconds
+	 */
+	public String getReport() {
+		long[] sorted = Arrays.copyOf(latencies, nbLatencies);
+		Arrays.sort(sorted);
+		return nbMessages + " messages, " + nbLatencies + " chords, latency p50 " + percentile(sorted, 50) + "us p90 "
+				+ percentile(sorted, 90) + "us p99 " + percentile(sorted, 99) + "us max " + percentile(sorted, 100) + "us";
+	}
+
+	private static String percentile(long[] sorted, int percent) {
+		if (sorted.length == 0)
+			return "-";
+		int index = Math.max(0, (int) Math.ceil(sorted.length * percent / 100.0) - 1);
+		return String.format("%.1f", sorted[index] / 1000.0);
+	}
+
+	/**
+	 * I-vi-IV-V in C major then ii-V-I, with inversions, one chord per beat at 120 bpm
+	 */
+	static Sequence createDemoSequence() throws Exception {
+		int[][] progression = { { 48, 64, 67, 72 }, { 45, 64, 69, 72 }, { 53, 65, 69, 72 }, { 43, 62, 67, 71 },
+				{ 50, 65, 69, 72 }, { 43, 65, 71, 74 }, { 52, 67, 72, 76 }, { 48, 64, 67, 71 } };
+		Sequence sequence = new Sequence(Sequence.PPQ, 480);
+		Track track = sequence.createTrack();
+		long tick = 0;
+		for (int loop = 0; loop < 4; loop++) {
+			for (int[] chord : progression) {
+				for (int note : chord) {
+					track.add(new MidiEvent(new ShortMessage(ShortMessage.NOTE_ON, 0, note, 100), tick));
+					track.add(new MidiEvent(new ShortMessage(ShortMessage.NOTE_OFF, 0, note, 0), tick + 440));
+				}
+				tick += 480;
+			}
+		}
+		track.add(new MidiEvent(new MetaMessage(END_OF_TRACK, new byte[0], 0), tick));
+		return sequence;
+	}
+}
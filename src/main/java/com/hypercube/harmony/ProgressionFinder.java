@@ -0,0 +1,409 @@
+package com.hypercube.harmony;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Find the smoothest chord progressions between two chords of a catalog
+ *
+ * Every chord can go to every other chord, the cost of a step to a chord is:
+ * distanceWeight * voice leading distance + dissonanceWeight * dissonance + complexityWeight * complexity
+ * see {@link Chord#distance(Chord)}, {@link Chord#computeDissonantScore()} and {@link Chord#getComplexity()}.
+ * The voice leading distance is divided by 65536, so the number of moving notes counts for 1 per note.
+ *
+ * The search is an A* over the chords, indexed by their position in a {@link ChordDistanceMatrix}.
+ * The heuristic is the exact cost to the target without the limit on the number of steps,
+ * computed once per target with a dense Dijkstra and kept in a small cache.
+ * The k best progressions are found by letting each (chord, number of steps) state be expanded k times.
+ * A progression never goes twice through the same chord.
+ *
+ * A finder can be used by concurrent threads.
+ *
+ * @author hypercube software
+ *
+ */
+public class ProgressionFinder {
+	static Logger logger = Logger.getLogger(ProgressionFinder.class.getName());
+	private static final int HEURISTIC_CACHE_SIZE = 64;
+	private static final int DEFAULT_MAX_QUEUE_SIZE = 1 << 20;
+
+	/**
+	 * A progression and its cost
+	 */
+	public static class Progression {
+		private final List<Chord> chords;
+		private final double cost;
+
+		private Progression(List<Chord> chords, double cost) {
+			this.chords = Collections.unmodifiableList(chords);
+			this.cost = cost;
+		}
+
+		public List<Chord> getChords() {
+			return chords;
+		}
+
+		public double getCost() {
+			return cost;
+		}
+
+		@Override
+		public String toString() {
+			String r = "";
+			for (Chord chord : chords) {
+				if (r.length() > 0)
+					r += " -> ";
+				r += chord.getChordName();
+			}
+			return r + String.format(" (%.3f)", cost);
+		}
+	}
+
+	/**
+	 * Snapshot of the weights
+	 */
+	private static class Costs {
+		final double distanceWeight;
+		/**
+		 * Cost to arrive on each chord, without the voice leading
+		 */
+		final double[] chordCosts;
+
+		Costs(double distanceWeight, double[] chordCosts) {
+			this.distanceWeight = distanceWeight;
+			this.chordCosts = chordCosts;
+		}
+	}
+
+	private final ChordDistanceMatrix matrix;
+	private double distanceWeight = 1;
+	private double dissonanceWeight = 1;
+	private double complexityWeight = 1 / 256.0;
+	private int maxQueueSize = DEFAULT_MAX_QUEUE_SIZE;
+	/**
+	 * Costs used by the searches, replaced when a weight change
+	 */
+	private volatile Costs costs;
+	private final Map<Integer, double[]> heuristics = new LinkedHashMap<Integer, double[]>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Integer, double[]> eldest) {
+			return size() > HEURISTIC_CACHE_SIZE;
+		}
+	};
+
+	/**
+	 * Chords of a scale, or of all the keys if the scale is null
+	 */
+	public ProgressionFinder(Scale scale) {
+		this(ChordDistanceMatrix.compute(scale));
+	}
+
+	/**
+	 * Chords of a generator, see {@link ChordGenerator#getChords()}
+	 */
+	public ProgressionFinder(Collection<Chord> chords) {
+		this(new ChordDistanceMatrix(chords));
+	}
+
+	public ProgressionFinder(ChordDistanceMatrix matrix) {
+		this.matrix = matrix;
+		updateCosts();
+	}
+
+	public ChordDistanceMatrix getMatrix() {
+		return matrix;
+	}
+
+	public synchronized void setDistanceWeight(double distanceWeight) {
+		this.distanceWeight = distanceWeight;
+		updateCosts();
+	}
+
+	public synchronized void setDissonanceWeight(double dissonanceWeight) {
+		this.dissonanceWeight = dissonanceWeight;
+		updateCosts();
+	}
+
+	/**
+	 * The complexity packs the number of notes with flags for inversions (16) and sixths (256)
+	 */
+	public synchronized void setComplexityWeight(double complexityWeight) {
+		this.complexityWeight = complexityWeight;
+		updateCosts();
+	}
+
+	/**
+	 * The search stops when its priority queue reach this size
+	 */
+	public void setMaxQueueSize(int maxQueueSize) {
+		this.maxQueueSize = maxQueueSize;
+	}
+
+	private synchronized void updateCosts() {
+		double[] costs = new double[matrix.size()];
+		for (int i = 0; i < costs.length; i++) {
+			Chord chord = matrix.getChord(i);
+			costs[i] = dissonanceWeight * chord.computeDissonantScore() + complexityWeight * chord.getComplexity();
+		}
+		synchronized (heuristics) {
+			this.costs = new Costs(distanceWeight, costs);
+			heuristics.clear();
+		}
+	}
+
+	private double cost(Costs costs, int from, int to) {
+		return costs.distanceWeight * matrix.distance(from, to) / 65536.0 + costs.chordCosts[to];
+	}
+
+	/**
+	 * @param from name of the first chord
+	 * @param to name of the last chord
+	 * @param maxSteps maximum number of changes of chord
+	 * @param k number of progressions
+	 * @param timeBudget in milliseconds, 0 for no limit. When the budget is exceeded, the progressions found so far
+	 *        are returned
+	 * @return the k cheapest progressions, cheapest first
+	 */
+	public List<Progression> find(String from, String to, int maxSteps, int k, long timeBudget) {
+		int source = matrix.indexOf(from);
+		int target = matrix.indexOf(to);
+		if (source == -1)
+			throw new IllegalArgumentException("Unknown chord " + from);
+		if (target == -1)
+			throw new IllegalArgumentException("Unknown chord " + to);
+		long deadline = timeBudget > 0 ? System.nanoTime() + timeBudget * 1000000 : Long.MAX_VALUE;
+		return new Search(source, target, maxSteps, k, deadline).run();
+	}
+
+	/**
+	 * Exact cost from every chord to the target, without limit on the number of steps
+	 *
+	 * The search goes backward, so it needs the distances to a chord: a column of the matrix.
+	 * The overlap and the gaps of {@link Chord#distance(Chord)} are symmetric, only the number of notes of the first chord
+	 * differs, so the column is read from the row to stay in the cache.
+	 */
+	private double[] getHeuristic(Costs costs, int target) {
+		synchronized (heuristics) {
+			double[] heuristic = heuristics.get(target);
+			if (heuristic != null && costs == this.costs)
+				return heuristic;
+		}
+		int n = matrix.size();
+		int[] distances = matrix.getDistances();
+		double scale = costs.distanceWeight / 65536.0;
+		double[] heuristic = new double[n];
+		// chords not settled yet, the settled ones are swapped at the end
+		int[] pending = new int[n];
+		int[] sizes = new int[n];
+		for (int u = 0; u < n; u++) {
+			pending[u] = u;
+			sizes[u] = matrix.getChord(u).getOffsets().size();
+		}
+		Arrays.fill(heuristic, Double.MAX_VALUE);
+		heuristic[target] = 0;
+		int nbPending = n;
+		int next = target;
+		while (nbPending > 0) {
+			int v = pending[next];
+			pending[next] = pending[--nbPending];
+			double h = heuristic[v] + costs.chordCosts[v];
+			int row = v * n;
+			next = -1;
+			double min = Double.MAX_VALUE;
+			for (int i = 0; i < nbPending; i++) {
+				int u = pending[i];
+				double c = h + scale * (distances[row + u] + ((sizes[u] - sizes[v]) << 16));
+				if (c < heuristic[u])
+					heuristic[u] = c;
+				if (heuristic[u] <= min) {
+					min = heuristic[u];
+					next = i;
+				}
+			}
+		}
+		synchronized (heuristics) {
+			if (costs == this.costs)
+				heuristics.put(target, heuristic);
+		}
+		return heuristic;
+	}
+
+	/**
+	 * State of one search: the partial progressions are entries of primitive arrays linked to their parent,
+	 * the priority queue is a binary heap of entries ordered by cost + heuristic
+	 */
+	private class Search {
+		private final int source;
+		private final int target;
+		private final int maxSteps;
+		private final int k;
+		private final long deadline;
+		private final Costs costs = ProgressionFinder.this.costs;
+		private final double[] heuristic;
+		private final int queueLimit = maxQueueSize;
+		/**
+		 * number of expansions of each (chord, steps) state
+		 */
+		private final int[] expansions;
+		private double[] bounds;
+		private int nbBounds;
+
+		private int[] chords = new int[1024];
+		private int[] parents = new int[1024];
+		private int[] steps = new int[1024];
+		private double[] entryCosts = new double[1024];
+		private double[] priorities = new double[1024];
+		private int nbEntries;
+
+		private int[] heap = new int[1024];
+		private int heapSize;
+
+		Search(int source, int target, int maxSteps, int k, long deadline) {
+			this.source = source;
+			this.target = target;
+			this.maxSteps = maxSteps;
+			this.k = k;
+			this.deadline = deadline;
+			this.heuristic = getHeuristic(costs, target);
+			this.expansions = new int[matrix.size() * (maxSteps + 1)];
+			// grown on demand, k may be far above the number of progressions found
+			this.bounds = new double[Math.max(Math.min(k, 16), 0)];
+		}
+
+		List<Progression> run() {
+			List<Progression> result = new ArrayList<Progression>();
+			if (k <= 0 || maxSteps <= 0)
+				return result;
+			push(source, -1, 0, 0);
+			while (heapSize > 0 && result.size() < k) {
+				int entry = pop();
+				int chord = chords[entry];
+				int step = steps[entry];
+				if (chord == target && step > 0) {
+					result.add(toProgression(entry));
+					continue;
+				}
+				int state = chord * (maxSteps + 1) + step;
+				if (expansions[state] >= k || step == maxSteps)
+					continue;
+				if (System.nanoTime() > deadline) {
+					logger.fine("Time budget exceeded, " + result.size() + " progressions found");
+					break;
+				}
+				expansions[state]++;
+				expand(entry, chord, step);
+				if (heapSize >= queueLimit) {
+					logger.fine("Queue limit reached, " + result.size() + " progressions found");
+					break;
+				}
+			}
+			return result;
+		}
+
+		private void expand(int entry, int chord, int step) {
+			int n = matrix.size();
+			boolean last = step + 1 == maxSteps;
+			for (int next = 0; next < n; next++) {
+				if (next == chord || (last && next != target) || heuristic[next] == Double.MAX_VALUE)
+					continue;
+				double cost = entryCosts[entry] + cost(costs, chord, next);
+				// k complete progressions cheaper than this one are already in the queue
+				if (nbBounds == k && cost + heuristic[next] >= bounds[k - 1])
+					continue;
+				if (next != target && expansions[next * (maxSteps + 1) + step + 1] >= k)
+					continue;
+				if (isInProgression(entry, next))
+					continue;
+				if (next == target)
+					addBound(cost);
+				push(next, entry, step + 1, cost);
+			}
+		}
+
+		/**
+		 * Keep the costs of the k cheapest complete progressions pushed in the queue
+		 */
+		private void addBound(double cost) {
+			if (nbBounds < k && nbBounds == bounds.length)
+				bounds = Arrays.copyOf(bounds, (int) Math.min(k, bounds.length * 2L));
+			int i = nbBounds < k ? nbBounds++ : k - 1;
+			while (i > 0 && bounds[i - 1] > cost) {
+				bounds[i] = bounds[i - 1];
+				i--;
+			}
+			bounds[i] = cost;
+		}
+
+		private boolean isInProgression(int entry, int chord) {
+			for (int e = entry; e != -1; e = parents[e]) {
+				if (chords[e] == chord)
+					return true;
+			}
+			return false;
+		}
+
+		private Progression toProgression(int entry) {
+			List<Chord> progression = new ArrayList<Chord>();
+			for (int e = entry; e != -1; e = parents[e]) {
+				progression.add(matrix.getChord(chords[e]));
+			}
+			Collections.reverse(progression);
+			return new Progression(progression, entryCosts[entry]);
+		}
+
+		private void push(int chord, int parent, int step, double cost) {
+			if (nbEntries == chords.length) {
+				int capacity = nbEntries * 2;
+				chords = Arrays.copyOf(chords, capacity);
+				parents = Arrays.copyOf(parents, capacity);
+				steps = Arrays.copyOf(steps, capacity);
+				entryCosts = Arrays.copyOf(entryCosts, capacity);
+				priorities = Arrays.copyOf(priorities, capacity);
+			}
+			int entry = nbEntries++;
+			chords[entry] = chord;
+			parents[entry] = parent;
+			steps[entry] = step;
+			entryCosts[entry] = cost;
+			priorities[entry] = cost + heuristic[chord];
+			if (heapSize == heap.length)
+				heap = Arrays.copyOf(heap, heapSize * 2);
+			int i = heapSize++;
+			while (i > 0) {
+				int p = (i - 1) >>> 1;
+				if (priorities[heap[p]] <= priorities[entry])
+					break;
+				heap[i] = heap[p];
+				i = p;
+			}
+			heap[i] = entry;
+		}
+
+		private int pop() {
+			int top = heap[0];
+			int entry = heap[--heapSize];
+			int i = 0;
+			while (true) {
+				int c = 2 * i + 1;
+				if (c >= heapSize)
+					break;
+				if (c + 1 < heapSize && priorities[heap[c + 1]] < priorities[heap[c]])
+					c++;
+				if (priorities[entry] <= priorities[heap[c]])
+					break;
+				heap[i] = heap[c];
+				i = c;
+			}
+			heap[i] = entry;
+			return top;
+		}
+	}
+}
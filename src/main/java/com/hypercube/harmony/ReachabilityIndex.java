@@ -0,0 +1,147 @@
+package com.hypercube.harmony;
+
+import java.util.Arrays;
+
+/**
+ * Tell in advance if a node of the {@link ChordGenerator} recursion can lead to a named chord
+ *
+ * For each interval set explored by the generator, we keep the minimal sets of intervals to add
+ * to reach a named chord (a named chord itself needs nothing more).
+ * A subtree is dead for a scale when none of those sets fits in the notes of the scale.
+ *
+ * Interval sets are masks of intervals without octave reduction (bit n = interval n)
+ *
+ * @author hypercube software
+ *
+ */
+public class ReachabilityIndex {
+	private static final int[] NAMED = new int[] { 0 };
+	private static final int[] DEAD = new int[0];
+
+	/**
+	 * Open addressing table: interval set to the minimal sets of intervals leading to a named chord
+	 * Dead interval sets are not stored
+	 */
+	private static class Holder {
+		static int[] keys;
+		static int[][] values;
+		static int size;
+
+		static {
+			keys = new int[1 << 16];
+			values = new int[1 << 16][];
+			try {
+				int[] notes = new int[ChordGenerator.MAX_NOTES];
+				collect(notes, 1, 1);
+			} catch (Exception e) {
+				throw new Error("Unable to build the reachability index", e);
+			}
+		}
+
+		/**
+		 * Walk all the interval sets the generator can explore
+		 *
+		 * @return the minimal sets of intervals to add to reach a named chord
+		 */
+		private static int[] collect(int[] notes, int size, int intervalMask) throws Exception {
+			int[] extensions = DEAD;
+			int nbExtensions = 0;
+			if (size < ChordGenerator.MAX_NOTES) {
+				int last = notes[size - 1];
+				for (int i = last + 1; i <= ChordGenerator.MAX_INTERVAL && i - last <= ChordGenerator.MAX_GAP; i++) {
+					notes[size] = i;
+					int[] childExtensions = collect(notes, size + 1, intervalMask | (1 << i));
+					for (int extension : childExtensions) {
+						if (nbExtensions == extensions.length)
+							extensions = Arrays.copyOf(extensions, Math.max(4, nbExtensions * 2));
+						extensions[nbExtensions++] = extension | (1 << i);
+					}
+				}
+			}
+			int[] result = isNamed(notes, size) ? NAMED : minimize(extensions, nbExtensions);
+			if (result != DEAD)
+				put(intervalMask, result);
+			return result;
+		}
+
+		private static void put(int key, int[] value) {
+			if (size * 2 >= keys.length) {
+				int[] oldKeys = keys;
+				int[][] oldValues = values;
+				keys = new int[oldKeys.length * 2];
+				values = new int[oldKeys.length * 2][];
+				for (int i = 0; i < oldKeys.length; i++) {
+					if (oldKeys[i] != 0) {
+						int slot = slot(keys, oldKeys[i]);
+						keys[slot] = oldKeys[i];
+						values[slot] = oldValues[i];
+					}
+				}
+			}
+			int slot = slot(keys, key);
+			keys[slot] = key;
+			values[slot] = value;
+			size++;
+		}
+	}
+
+	/**
+	 * Same rules as the generator: a chord has a name if its intervals or one of its inversions are known
+	 */
+	private static boolean isNamed(int[] notes, int size) throws Exception {
+		if (size == 1)
+			return true;
+		if (!ChordFormula.isValid(notes, size))
+			return false;
+		ChordFormula formula = new ChordFormula(notes, size);
+		return !Intervals.getChordType(formula).contains("?") || InversionIndex.get(formula) != null;
+	}
+
+	/**
+	 * Remove the sets containing another set
+	 */
+	private static int[] minimize(int[] sets, int size) {
+		if (size == 0)
+			return DEAD;
+		int[] result = new int[size];
+		int nbResult = 0;
+		for (int i = 0; i < size; i++) {
+			boolean minimal = true;
+			for (int j = 0; j < size && minimal; j++) {
+				if (i != j && (sets[j] & sets[i]) == sets[j] && (sets[j] != sets[i] || j < i))
+					minimal = false;
+			}
+			if (minimal)
+				result[nbResult++] = sets[i];
+		}
+		return Arrays.copyOf(result, nbResult);
+	}
+
+	/**
+	 * @return the slot of the key, or the empty slot where it should be inserted
+	 */
+	private static int slot(int[] keys, int key) {
+		int mask = keys.length - 1;
+		int slot = (key * 0x9E3779B9) >>> (32 - Integer.numberOfTrailingZeros(keys.length));
+		while (keys[slot] != 0 && keys[slot] != key) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	/**
+	 * @param intervalMask intervals of a node (bit n = interval n)
+	 * @param allowedMask intervals allowed by the scale from the root note of the node
+	 * @return true if a named chord can be found in the subtree of the node
+	 */
+	public static boolean isReachable(int intervalMask, int allowedMask) {
+		int[] extensions = Holder.values[slot(Holder.keys, intervalMask)];
+		if (extensions == null)
+			return false;
+		for (int extension : extensions) {
+			if ((extension & ~allowedMask) == 0)
+				return true;
+		}
+		return false;
+	}
+}
@@ -0,0 +1,179 @@
+package com.hypercube.harmony;
+
+import java.util.List;
+
+/**
+ * Sensory dissonance of chords, with the Plomp-Levelt curve as parametrized by Sethares
+ *
+ * Each note is a harmonic tone: {@value #DEFAULT_PARTIALS} partials by default, the amplitude decreasing by
+ * {@value #AMPLITUDE_DECAY} for each one. The roughness of two notes is the sum of the roughness of all the pairs
+ * of partials, it depends on the interval and on the register. It is computed once for all the pairs of notes of
+ * the table of the {@link Tuning}, so the roughness of a chord is a sum of lookups over its pairs of notes.
+ *
+ * Unlike {@link Chord#computeDissonantScore()}, the value is not a percentage: it grows with the number of notes.
+ *
+ * @author hypercube software
+ *
+ */
+public class RoughnessModel {
+	public static final int DEFAULT_PARTIALS = 6;
+	public static final double AMPLITUDE_DECAY = 0.88;
+	/**
+	 * Sethares 1993: point of maximal roughness and the curve around it
+	 */
+	private static final double D_STAR = 0.24;
+	private static final double S1 = 0.0207;
+	private static final double S2 = 18.96;
+	private static final double B1 = 3.51;
+	private static final double B2 = 5.75;
+	private static final int TABLE_SIZE = Tuning.TABLE_SIZE;
+
+	private final Tuning tuning;
+	private final double[] amplitudes;
+	/**
+	 * Roughness of the notes low and high (low <= high) at low * TABLE_SIZE + high
+	 */
+	private final double[] pairs = new double[TABLE_SIZE * TABLE_SIZE];
+
+	private static class Holder {
+		static final RoughnessModel DEFAULT = new RoughnessModel(Tuning.EQUAL_TEMPERAMENT, DEFAULT_PARTIALS);
+	}
+
+	/**
+	 * @return the model in equal temperament, built on first use
+	 */
+	public static RoughnessModel getDefault() {
+		return Holder.DEFAULT;
+	}
+
+	public RoughnessModel(Tuning tuning, int nbPartials) {
+		if (nbPartials < 1)
+			throw new IllegalArgumentException("At least one partial is needed: " + nbPartials);
+		this.tuning = tuning;
+		amplitudes = new double[nbPartials];
+		double amplitude = 1;
+		for (int i = 0; i < nbPartials; i++) {
+			amplitudes[i] = amplitude;
+			amplitude *= AMPLITUDE_DECAY;
+		}
+		for (int low = 0; low < TABLE_SIZE; low++) {
+			for (int high = low; high < TABLE_SIZE; high++) {
+				pairs[low * TABLE_SIZE + high] = computePair(low, high);
+			}
+		}
+	}
+
+	public Tuning getTuning() {
+		return tuning;
+	}
+
+	private double computePair(int low, int high) {
+		double lowFrequency = tuning.getFrequency(low);
+		double highFrequency = tuning.getFrequency(high);
+		double roughness = 0;
+		for (int i = 0; i < amplitudes.length; i++) {
+			double f1 = lowFrequency * (i + 1);
+			for (int j = 0; j < amplitudes.length; j++) {
+				double f2 = highFrequency * (j + 1);
+				double s = D_STAR / (S1 * Math.min(f1, f2) + S2);
+				double delta = Math.abs(f2 - f1);
+				roughness += Math.min(amplitudes[i], amplitudes[j]) * (Math.exp(-B1 * s * delta) - Math.exp(-B2 * s * delta));
+			}
+		}
+		return roughness;
+	}
+
+	/**
+	 * @return roughness of two notes, see {@link Chord#getOffsets()} for the numbering
+	 */
+	public double getPair(int note1, int note2) {
+		int low = Math.min(note1, note2);
+		int high = Math.max(note1, note2);
+		if (low >= 0 && high < TABLE_SIZE)
+			return pairs[low * TABLE_SIZE + high];
+		return computePair(low, high);
+	}
+
+	/**
+	 * @return roughness of the first "size" notes
+	 */
+	public double score(int[] notes, int size) {
+		double roughness = 0;
+		for (int i = 0; i < size; i++) {
+			int low = notes[i];
+			for (int j = i + 1; j < size; j++) {
+				roughness += getPair(low, notes[j]);
+			}
+		}
+		return roughness;
+	}
+
+	/**
+	 * @return roughness of a chord as it is voiced
+	 */
+	public double score(Chord chord) {
+		int[] notes = chord.getNoteArray();
+		return score(notes, notes.length);
+	}
+
+	/**
+	 * Roughness of the root positions of a catalog, read in place
+	 *
+	 * @return one value per entry, in the order of the catalog
+	 */
+	public double[] score(ChordCatalog catalog) {
+		double[] scores = new double[catalog.size()];
+		int[] notes = new int[12];
+		for (int c = 0; c < scores.length; c++) {
+			ChordCatalog.Entry entry = catalog.get(c);
+			int size = entry.getSize();
+			if (size > notes.length)
+				notes = new int[size];
+			for (int i = 0; i < size; i++) {
+				notes[i] = entry.getRootNote() + entry.getInterval(i);
+			}
+			scores[c] = score(notes, size);
+		}
+		return scores;
+	}
+
+	/**
+	 * @return one value per chord, in the order of the list
+	 */
+	public double[] score(List<Chord> chords) {
+		double[] scores = new double[chords.size()];
+		for (int c = 0; c < scores.length; c++) {
+			scores[c] = score(chords.get(c));
+		}
+		return scores;
+	}
+
+	/**
+	 * Roughness of all the inversions of a chord in close position: the inversion n starts with the note n,
+	 * the notes below it are raised by octaves above the previous note
+	 *
+	 * @param notes sorted notes of the chord
+	 * @return one value per inversion, the root position first
+	 */
+	public double[] scoreVoicings(int[] notes, int size) {
+		double[] scores = new double[size];
+		int[] voicing = new int[size];
+		for (int inversion = 0; inversion < size; inversion++) {
+			for (int i = 0; i < size; i++) {
+				int note = notes[(inversion + i) % size];
+				if (i > 0) {
+					while (note <= voicing[i - 1])
+						note += 12;
+				}
+				voicing[i] = note;
+			}
+			scores[inversion] = score(voicing, size);
+		}
+		return scores;
+	}
+
+	public double[] scoreVoicings(Chord chord) {
+		int[] notes = chord.getNoteArray();
+		return scoreVoicings(notes, notes.length);
+	}
+}
@@ -1,8 +1,8 @@
 package com.hypercube.harmony;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 /**
  * A scale is an instance of a ScaleTemplate at a given note
@@ -17,8 +17,18 @@ public class Scale {
 	 */
 	private List<Integer> notes = new ArrayList<Integer>();
 	private List<String> noteNames = new ArrayList<String>();
-	private HashMap<Integer,Integer> noteToDegree = new HashMap<Integer,Integer>();
-	private HashMap<Integer,Integer> degreeToNote = new HashMap<Integer,Integer>();
+	/**
+	 * degree of each note (0-11), -1 if the note is not in the scale
+	 */
+	private int[] noteToDegree = new int[12];
+	/**
+	 * note of each degree, shifted by the root note without modulo, the last degree is the octave
+	 */
+	private int[] degreeToNote = new int[0];
+	/**
+	 * diatonic name of each note (0-11), null if the note is not in the scale
+	 */
+	private String[] pitchClassNames = new String[12];
 	private int bitmask;
 	private String url;
 	private String rootName;
@@ -65,24 +75,27 @@ public class Scale {
 	public Scale(String name)
 	{
 		this.name = name;
+		Arrays.fill(noteToDegree, -1);
 	}
 	public Scale(String name, Integer rootNote, ScaleFormula formula) {
 		this.rootNote = rootNote;
 		this.name = name;
 		this.formula = formula;
+		degreeToNote = new int[formula.getOffets().size()];
 		for (int degree=0;degree<formula.getOffets().size();degree++)
 		{
 			int offset = formula.getOffets().get(degree);
 			int note = offset+rootNote;
-			degreeToNote.put(degree, note);
+			degreeToNote[degree] = note;
 			notes.add(note%12);
 		}
 		notes.remove(notes.size()-1);//remove last since it is the first one
 		bitmask = 0;
+		Arrays.fill(noteToDegree, -1);
 		for (int degree=0;degree<notes.size();degree++)
 		{
 			int note = notes.get(degree);
-			noteToDegree.put(note, degree);	
+			noteToDegree[note] = degree;
 			bitmask = bitmask | (1<<note);
 		}
 		url = "https://ianring.com/musictheory/scales/"+bitmask;
@@ -114,6 +127,7 @@ public class Scale {
 				
 			}
 			noteNames.add(name);
+			pitchClassNames[n] = name;
 			if (n == rootNote)
 			{
 				rootName = name;
@@ -122,19 +136,41 @@ public class Scale {
 		}
 	}
 
+	/**
+	 * @return true if the note is in the scale, whatever its octave
+	 */
+	public boolean contains(int note) {
+		return (bitmask & (1<<(note%12))) != 0;
+	}
 	public Integer getDegree(int note) {
-		if (noteToDegree.containsKey(note%12))
-			return noteToDegree.get(note%12);
-		else
-			return -1;
+		return getDegreeIndex(note);
+	}
+	/**
+	 * Same as {@link #getDegree(int)} without boxing
+	 * @return -1 if the note is not in the scale
+	 */
+	public int getDegreeIndex(int note) {
+		return noteToDegree[note%12];
 	}
 	public Integer getNote(int degree) {
+		int note = getNoteIndex(degree);
+		if (note==-1)
+			return null;
+		return note;
+	}
+	/**
+	 * Same as {@link #getNote(int)} without boxing
+	 * @return -1 if the scale has no such degree
+	 */
+	public int getNoteIndex(int degree) {
 		if (degree>=getSize())
 			degree = notes.size()-1;
-		return degreeToNote.get(degree);
+		if (degree<0 || degree>=degreeToNote.length)
+			return -1;
+		return degreeToNote[degree];
 	}
 	public Integer getNoteWithoutModulo(int degree) {
-		int note = degreeToNote.get(degree);
+		int note = degreeToNote[degree];
 		if (note<=rootNote)
 			return note+12;
 		else
@@ -149,6 +185,12 @@ public class Scale {
 	public List<Integer> getNotes() {
 		return notes;
 	}
+	/**
+	 * @return the diatonic name of a note of the scale, null if the note is not in the scale
+	 */
+	public String getNoteName(int note) {
+		return pitchClassNames[note%12];
+	}
 	public String getDegreeName(int index) {
 		return formula.getDegreeName(index);
 	}
@@ -0,0 +1,68 @@
+package com.hypercube.harmony;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Base of the sinks writing UTF-8 text in a channel, gzipped on demand.
+ * The text is buffered once, then compressed on the fly: a single pass, nothing is kept in memory
+ *
+ * @author hypercube software
+ *
+ */
+abstract class TextGraphSink implements GraphSink {
+	/**
+	 * Size of the buffers between the generator and the files
+	 */
+	static final int OUTPUT_BUFFER_SIZE = 1 << 20;
+	private static final int GZIP_BUFFER_SIZE = 1 << 16;
+
+	protected final PrintWriter out;
+	private final OutputStream stream;
+	private final WritableByteChannel channel;
+	private final boolean compressed;
+
+	protected TextGraphSink(WritableByteChannel channel, boolean compressed) throws IOException {
+		this.channel = channel;
+		this.compressed = compressed;
+		OutputStream output = Channels.newOutputStream(channel);
+		if (compressed)
+			output = new GZIPOutputStream(output, GZIP_BUFFER_SIZE);
+		stream = new BufferedOutputStream(output, OUTPUT_BUFFER_SIZE);
+		out = openWriter(stream);
+	}
+
+	static PrintWriter openWriter(OutputStream stream) {
+		return new PrintWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8), false);
+	}
+
+	/**
+	 * Copy the whole content of a file at the current position of the output
+	 */
+	protected void append(FileChannel file) throws IOException {
+		out.flush();
+		long size = file.size();
+		long position = 0;
+		// uncompressed, the file is sent straight to the channel
+		WritableByteChannel target = compressed ? Channels.newChannel(stream) : channel;
+		while (position < size) {
+			position += file.transferTo(position, size - position, target);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		// closing the writer also close the channel
+		out.close();
+		if (out.checkError())
+			throw new IOException("Unable to write the graph");
+	}
+}
@@ -0,0 +1,111 @@
+package com.hypercube.harmony;
+
+/**
+ * Frequencies of the notes in a temperament, computed once
+ *
+ * A tuning is defined by the deviation of the 12 pitch classes from C, in cents.
+ * Notes are numbered like {@link Chord#getOffsets()}: 0 is the middle C, A 440 is 9.
+ * The pure intervals of {@link #JUST_INTONATION} and {@link #PYTHAGOREAN} are built on C.
+ *
+ * Instances are immutable and can be shared between threads.
+ *
+ * @author hypercube software
+ *
+ */
+public final class Tuning {
+	/**
+	 * Notes in the frequency table, the others are computed on each call
+	 */
+	static final int TABLE_SIZE = 128;
+	private static final double A4_FREQUENCY = 440;
+	private static final int A4_NOTE = 9;
+
+	public static final Tuning EQUAL_TEMPERAMENT = fromCents("Equal temperament", 0, 100, 200, 300, 400, 500, 600,
+			700, 800, 900, 1000, 1100);
+	/**
+	 * 5-limit just intonation
+	 */
+	public static final Tuning JUST_INTONATION = fromRatios("Just intonation", 1, 16 / 15.0, 9 / 8.0, 6 / 5.0,
+			5 / 4.0, 4 / 3.0, 45 / 32.0, 3 / 2.0, 8 / 5.0, 5 / 3.0, 9 / 5.0, 15 / 8.0);
+	/**
+	 * Pure fifths, the wolf fifth is between F# and C#
+	 */
+	public static final Tuning PYTHAGOREAN = fromRatios("Pythagorean", 1, 256 / 243.0, 9 / 8.0, 32 / 27.0,
+			81 / 64.0, 4 / 3.0, 729 / 512.0, 3 / 2.0, 128 / 81.0, 27 / 16.0, 16 / 9.0, 243 / 128.0);
+
+	private final String name;
+	private final double[] cents;
+	private final double[] frequencies = new double[TABLE_SIZE];
+
+	private Tuning(String name, double[] cents) {
+		this.name = name;
+		this.cents = cents;
+		for (int note = 0; note < TABLE_SIZE; note++) {
+			frequencies[note] = computeFrequency(note);
+		}
+	}
+
+	/**
+	 * @param cents deviation of each pitch class from C, from C to B
+	 */
+	public static Tuning fromCents(String name, double... cents) {
+		if (cents.length != 12)
+			throw new IllegalArgumentException("A tuning needs 12 pitch classes: " + cents.length);
+		return new Tuning(name, cents.clone());
+	}
+
+	/**
+	 * @param ratios frequency ratio of each pitch class to C, from C to B
+	 */
+	public static Tuning fromRatios(String name, double... ratios) {
+		if (ratios.length != 12)
+			throw new IllegalArgumentException("A tuning needs 12 pitch classes: " + ratios.length);
+		double[] cents = new double[12];
+		for (int i = 0; i < 12; i++) {
+			if (ratios[i] <= 0)
+				throw new IllegalArgumentException("Invalid ratio for pitch class " + i + ": " + ratios[i]);
+			cents[i] = 1200 * Math.log(ratios[i]) / Math.log(2);
+		}
+		return new Tuning(name, cents);
+	}
+
+	/**
+	 * A 440 keeps its frequency in all the tunings
+	 */
+	private double computeFrequency(int note) {
+		int octave = Math.floorDiv(note, 12);
+		return A4_FREQUENCY * Math.pow(2, octave + (cents[Math.floorMod(note, 12)] - cents[A4_NOTE]) / 1200.0);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return deviation of a pitch class (0-11) from C
+	 */
+	public double getCents(int pitchClass) {
+		return cents[pitchClass];
+	}
+
+	/**
+	 * @return frequency in Hz, see {@link Chord#getOffsets()} for the numbering
+	 */
+	public double getFrequency(int note) {
+		if (note >= 0 && note < TABLE_SIZE)
+			return frequencies[note];
+		return computeFrequency(note);
+	}
+
+	/**
+	 * @return frequency ratio between a note and the root note of its chord
+	 */
+	public double getRatio(int note, int rootNote) {
+		return getFrequency(note) / getFrequency(rootNote);
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+}
@@ -0,0 +1,161 @@
+package com.hypercube.harmony;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Generation modes, which must all write the same file, and limits beyond the indexes (see {@link GeneratorConfig#isIndexed()})
+ *
+ * @author hypercube software
+ *
+ */
+public class ChordGeneratorTest {
+	/**
+	 * A scale and all the keys
+	 */
+	private static Scale[] getScales() throws Exception {
+		return new Scale[] { new Scale("D Phrygian Major", 2, new ScaleFormula("H-WH-H-W-H-W-W")), null };
+	}
+
+	private static byte[] generate(Scale scale, boolean parallel, boolean pruning) {
+		ChordGenerator generator = new ChordGenerator(scale);
+		generator.setParallel(parallel);
+		generator.setPruning(pruning);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		generator.generateChords(out);
+		return out.toByteArray();
+	}
+
+	/**
+	 * A parallel generation writes the very same bytes as a serial one, for a scale and for all the keys
+	 */
+	@Test
+	public void parallelWritesTheSameFile() throws Exception {
+		for (Scale scale : getScales()) {
+			byte[] serial = generate(scale, false, true);
+			assertTrue(serial.length > 0);
+			assertArrayEquals(serial, generate(scale, true, true), scale != null ? scale.getName() : "chromatic");
+		}
+	}
+
+	/**
+	 * Pruning the dead subtrees does not change the file, serial or parallel
+	 */
+	@Test
+	public void pruningWritesTheSameFile() throws Exception {
+		for (Scale scale : getScales()) {
+			byte[] unpruned = generate(scale, false, false);
+			String name = scale != null ? scale.getName() : "chromatic";
+			assertArrayEquals(unpruned, generate(scale, false, true), name);
+			assertArrayEquals(unpruned, generate(scale, true, true), name);
+		}
+	}
+
+	/**
+	 * The recursion on the note stack finds the same chords whatever the mode: the stream of chords
+	 * and a pruned parallel generation give the chords of an unpruned serial generation
+	 */
+	@Test
+	public void everyModeFindsTheSameChords() throws Exception {
+		for (Scale scale : getScales()) {
+			ChordGenerator serial = new ChordGenerator(scale);
+			serial.setPruning(false);
+			serial.generateChords(new ByteArrayOutputStream());
+			Map<String, Chord> expected = byName(serial.getChords());
+			assertFalse(expected.isEmpty());
+			ChordGenerator parallel = new ChordGenerator(scale);
+			parallel.setParallel(true);
+			parallel.generateChords(new ByteArrayOutputStream());
+			assertSameChords(expected, parallel.getChords());
+			assertSameChords(expected, new ChordGenerator(scale).computeChords());
+		}
+	}
+
+	private static Map<String, Chord> byName(Collection<Chord> chords) {
+		Map<String, Chord> result = new HashMap<String, Chord>();
+		for (Chord chord : chords) {
+			assertNull(result.put(chord.getChordName(), chord), chord.getChordName());
+		}
+		return result;
+	}
+
+	private static void assertSameChords(Map<String, Chord> expected, Collection<Chord> chords) {
+		Map<String, Chord> actual = byName(chords);
+		assertEquals(expected.keySet(), actual.keySet());
+		for (Map.Entry<String, Chord> entry : expected.entrySet()) {
+			assertSame(entry.getValue(), actual.get(entry.getKey()), entry.getKey());
+		}
+	}
+
+	/**
+	 * The dictionary stops at {@value ChordGenerator#MAX_NOTES} notes: bigger clusters have no name,
+	 * not even through one of their inversions
+	 */
+	@Test
+	public void noNameBeyondTheDictionary() throws Exception {
+		GeneratorConfig config = new GeneratorConfig();
+		config.setMaxNotes(9);
+		config.setMaxInterval(31);
+		config.setMaxGap(8);
+		// the whole space is not pruned anymore, the beginning of the search is enough
+		config.setMaxNodes(1000000);
+		ChordGenerator generator = new ChordGenerator(null);
+		generator.setConfig(config);
+		List<String> labels = new ArrayList<String>();
+		generator.writeChords(new GraphSink() {
+			@Override
+			public void start() {
+			}
+
+			@Override
+			public void node(int id, String label, String color) {
+				labels.add(label);
+			}
+
+			@Override
+			public void edge(int index, int from, int to, String label, String color, boolean dashed) {
+			}
+
+			@Override
+			public void end(String stopReason) {
+			}
+
+			@Override
+			public void close() {
+			}
+		});
+		assertFalse(generator.getChords().isEmpty());
+		// only the nodes leading to a named chord are emitted
+		assertTrue(labels.size() < 1000, labels.size() + " nodes emitted");
+		for (Chord chord : generator.getChords()) {
+			Chord root = chord instanceof InvertedChord ? ((InvertedChord) chord).getBaseChord() : chord;
+			assertTrue(chord.getFormula().getSize() <= ChordGenerator.MAX_NOTES, chord.getChordName());
+			// only the major triads have an empty type
+			if (chord.getType().isEmpty())
+				assertEquals(3, root.getFormula().getSize(), chord.getChordName());
+		}
+	}
+
+	@Test
+	public void clusterHasNoName() throws Exception {
+		int[] notes = new int[] { 0, 1, 2, 3, 4, 5, 6, 7, 9 };
+		Chord[] nodeChords = new Chord[2];
+		String name = new ChordGenerator(null).identifyChord(0, notes, notes.length, true, nodeChords);
+		assertEquals("?", name);
+		assertNull(nodeChords[1]);
+		assertNull(InversionIndex.get(new ChordFormula(notes, notes.length)));
+	}
+}
@@ -0,0 +1,61 @@
+package com.hypercube.harmony;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * The chords of {@link ChordRegistry} are shared by all the generations, their names must never change
+ *
+ * @author hypercube software
+ *
+ */
+public class ChordRegistryTest {
+	@Test
+	public void sharedChordsCanNotBeRenamed() throws Exception {
+		Scale scale = new Scale("C Minor", 0, new ScaleFormula("T-S-T-T-S-T-T"));
+		List<Chord> chords = new ChordGenerator(null).computeChords();
+		int renamed = 0;
+		for (Chord chord : chords) {
+			String name = chord.getChordName();
+			assertThrows(IllegalStateException.class, () -> chord.setScale(scale), name);
+			assertNull(chord.getScale());
+			assertEquals(name, chord.getChordName());
+			if (chord instanceof InvertedChord) {
+				Chord baseChord = ((InvertedChord) chord).getBaseChord();
+				assertThrows(IllegalStateException.class, () -> baseChord.setScale(scale), name);
+			}
+			Chord copy = chord.withScale(scale);
+			assertNotSame(chord, copy);
+			assertSame(scale, copy.getScale());
+			if (!copy.getChordName().equals(name))
+				renamed++;
+		}
+		// the sharps of the chromatic names become flats in C Minor
+		assertTrue(renamed > 0);
+		// a new generation gets the very same instances, with their original names
+		List<Chord> again = new ChordGenerator(null).computeChords();
+		assertEquals(chords.size(), again.size());
+		for (int i = 0; i < chords.size(); i++) {
+			assertSame(chords.get(i), again.get(i));
+			assertNull(again.get(i).getScale());
+		}
+	}
+
+	@Test
+	public void copiesCanBeRenamed() throws Exception {
+		Chord chord = ChordRegistry.getChord(ChordRegistry.getFormula(new int[] { 0, 4, 7, 10, 13 }, 5), 10);
+		Chord copy = chord.withScale(new Scale("C Minor", 0, new ScaleFormula("T-S-T-T-S-T-T")));
+		assertNotEquals(chord.getChordName(), copy.getChordName());
+		copy.setScale(null);
+		assertEquals(chord.getChordName(), copy.getChordName());
+	}
+}
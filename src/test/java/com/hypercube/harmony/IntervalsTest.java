@@ -0,0 +1,173 @@
+package com.hypercube.harmony;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Differential test of {@link Intervals#getChordType(ChordFormula)} against the original lookup,
+ * which compared the interval codes of the chord with each line of the dictionary, in order
+ *
+ * @author hypercube software
+ *
+ */
+public class IntervalsTest {
+	private static final String[] INTERVAL_CODES = new String[] { "P1", "m2", "M2", "m3", "M3", "P4", "Tritone", "P5",
+			"m6", "M6", "m7", "M7", "P8", "m9", "M9", "m10", "M10", "P11", "d12", "P12", "m13", "M13", "m14", "M14",
+			"P15" };
+
+	/**
+	 * Reference dictionary, copied from the original chain of comparisons
+	 */
+	private static final String[][] CHORD_TYPES = new String[][] {
+			{ "min13", "m3", "P5", "m7", "M9", "P11", "M13" },
+			{ "maj13", "M3", "P5", "M7", "M9", "P11", "M13" },
+			{ "dom13", "M3", "P5", "m7", "M9", "P11", "M13" },
+			{ "dom13(b5)", "M3", "Tritone", "m7", "M9", "P11", "M13" },
+			{ "dom13(#5)", "M3", "m6", "m7", "M9", "P11", "M13" },
+			{ "min11", "m3", "P5", "m7", "M9", "P11" },
+			{ "min11(b5)", "m3", "Tritone", "m7", "M9", "P11" },
+			{ "maj11", "M3", "P5", "M7", "M9", "P11" },
+			{ "dom11", "M3", "P5", "m7", "M9", "P11" },
+			{ "dom11(b5)", "M3", "Tritone", "m7", "M9", "P11" },
+			{ "dom11(#5)", "M3", "m6", "m7", "M9", "P11" },
+			{ "dom9", "M3", "P5", "m7", "M9" },
+			{ "maj9", "M3", "P5", "M7", "M9" },
+			{ "maj7(#9)", "M3", "P5", "M7", "m10" },
+			{ "maj7(b9)", "M3", "P5", "M7", "m9" },
+			{ "m9", "m3", "P5", "m7", "M9" },
+			{ "9#7", "M2", "M3", "P5", "m7" },
+			{ "maj7(#9)", "m3", "M3", "P5", "M7" },
+			{ "7(b9)", "m2", "M3", "P5", "M7" },
+			{ "dom7(b9)", "M3", "P5", "m7", "m9" },
+			{ "dom7(#9)", "M3", "P5", "m7", "m10" },
+			{ "dom9(b5)", "M3", "Tritone", "m7", "M9" },
+			{ "dom7(b5b9)", "M3", "Tritone", "m7", "m9" },
+			{ "dom9(#5)", "M3", "m6", "m7", "M9" },
+			{ "dom9(#5b9)", "M3", "m6", "m7", "m9" },
+			{ "dom7(#5#9)", "M3", "m6", "m7", "m10" },
+			{ "m(maj9)", "m3", "P5", "M7", "M9" },
+			{ "dim(maj9)", "m3", "Tritone", "M7", "M9" },
+			{ "m(maj9)#5", "m3", "m6", "M7", "M9" },
+			{ "m7(b9)add(7)", "m3", "m6", "M7", "m9" },
+			{ "m9#5", "m3", "m6", "m7", "M9" },
+			{ "m7", "m3", "P5", "m7" },
+			{ "m+7", "m3", "P5", "M7" },
+			{ "7sus4", "P4", "P5", "m7" },
+			{ "7sus2", "M2", "P5", "m7" },
+			{ "maj7", "M3", "P5", "M7" },
+			{ "maj7#5", "M3", "m6", "M7" },
+			{ "maj7sus4", "P4", "P5", "M7" },
+			{ "maj7sus2", "M2", "P5", "M7" },
+			{ "dom7", "M3", "P5", "m7" },
+			{ "dim7", "m3", "Tritone", "M6" },
+			{ "7b5", "M3", "Tritone", "m7" },
+			{ "7#5", "M3", "m6", "m7" },
+			{ "m7b5", "m3", "Tritone", "m7" },
+			{ "m7#5", "m3", "m6", "m7" },
+			{ "maj7b5", "M3", "Tritone", "M7" },
+			{ "m6#5", "m3", "m6", "M6" },
+			{ "6#5", "M3", "m6", "M6" },
+			{ " Lydian Maj7", "Tritone", "P5", "M7" },
+			{ " Lydian b7", "Tritone", "P5", "m7" },
+			{ " Phrygian Maj7", "m2", "P5", "M7" },
+			{ " Phrygian b7", "m2", "P5", "m7" },
+			{ " Locrian Maj7", "P4", "Tritone", "M7" },
+			{ " Locrian b7", "P4", "Tritone", "m7" },
+			{ "sus2", "M2", "P5" },
+			{ "sus4", "P4", "P5" },
+			{ " Lydian", "Tritone", "P5" },
+			{ " Phrygian", "m2", "P5" },
+			{ " Locrian", "P4", "Tritone" },
+			{ "", "M3", "P5" },
+			{ "m", "m3", "P5" },
+			{ "", "m3", "Tritone" },
+			{ "(b5)", "M3", "Tritone" },
+			{ "+", "M3", "m6" },
+			{ "?", "m3", "m6" },
+			{ "?", "P4", "m6" },
+			{ "?", "P4", "M6" },
+			{ "6", "M3", "M6" },
+			{ "m6", "m3", "M6" },
+			{ "sus4(b5)", "P4", "Tritone" },
+	};
+
+	/**
+	 * Original lookup: the intervals are converted to their codes, then compared with each line of the dictionary
+	 */
+	private static String referenceChordType(ChordFormula cf) {
+		List<Integer> offsets = cf.getIntervals();
+		String[] intervals = new String[offsets.size()];
+		for (int i = 0; i < intervals.length; i++) {
+			intervals[i] = INTERVAL_CODES[offsets.get(i) % INTERVAL_CODES.length];
+		}
+		int size = intervals.length;
+		if (size == 2)
+			return intervals[1];
+		if (size < 3 || size > 7)
+			return "";
+		for (String[] chordType : CHORD_TYPES) {
+			if (Arrays.equals(chordType, 1, chordType.length, intervals, 1, size))
+				return chordType[0];
+		}
+		return "?";
+	}
+
+	/**
+	 * Limits of the recursion of {@link ChordGenerator}
+	 */
+	private static final int MAX_NOTES = 7;
+	private static final int MAX_INTERVAL = 21; // M13
+	private static final int MAX_GAP = 6;
+
+	private int nbFormulas;
+
+	@Test
+	public void sameTypeForEveryFormulaOfTheGenerator() throws Exception {
+		int[] notes = new int[MAX_NOTES];
+		walk(notes, 1);
+		assertTrue(nbFormulas > 0);
+	}
+
+	/**
+	 * Walk the interval sets explored by {@link ChordGenerator}, and all their inversions
+	 */
+	private void walk(int[] notes, int size) throws Exception {
+		if (size >= 2 && ChordFormula.isValid(notes, size)) {
+			ChordFormula formula = new ChordFormula(notes, size);
+			check(formula);
+			for (int inversion = 1; inversion < size; inversion++) {
+				ChordFormula inverted = InvertedChord.invertedFormula(formula, inversion);
+				if (inverted != null)
+					check(inverted);
+			}
+		}
+		if (size == MAX_NOTES)
+			return;
+		int last = notes[size - 1];
+		for (int i = last + 1; i <= MAX_INTERVAL && i - last <= MAX_GAP; i++) {
+			notes[size] = i;
+			walk(notes, size + 1);
+		}
+	}
+
+	private void check(ChordFormula formula) {
+		nbFormulas++;
+		assertEquals(referenceChordType(formula), Intervals.getChordType(formula), formula.getIntervals().toString());
+		assertEquals(Intervals.getChordType(formula), Intervals.getChordType(formula.getOffsets(), formula.getSize()));
+	}
+
+	@Test
+	public void knownTypes() throws Exception {
+		assertEquals("", Intervals.getChordType(new ChordFormula(new int[] { 0, 4, 7 }, 3)));
+		assertEquals("m", Intervals.getChordType(new ChordFormula(new int[] { 0, 3, 7 }, 3)));
+		assertEquals("dom7", Intervals.getChordType(new ChordFormula(new int[] { 0, 4, 7, 10 }, 4)));
+		assertEquals("maj13", Intervals.getChordType(new ChordFormula(new int[] { 0, 4, 7, 11, 14, 17, 21 }, 7)));
+		assertEquals("P5", Intervals.getChordType(new ChordFormula(new int[] { 0, 7 }, 2)));
+		assertEquals("?", Intervals.getChordType(new ChordFormula(new int[] { 0, 1, 3 }, 3)));
+	}
+}